@@ -0,0 +1,74 @@
+package com.lizaveta.benchmark;
+
+import com.lizaveta.config.ExecutionProperties;
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.service.storage.FileService;
+import com.lizaveta.service.storage.FolderService;
+import com.lizaveta.service.storage.StorageService;
+import com.lizaveta.service.storage.archive.CompressedContentDetector;
+import com.lizaveta.service.storage.archive.ParallelZipWriter;
+import com.lizaveta.service.storage.blob.BlobStore;
+import com.lizaveta.service.storage.io.DiskConcurrencyLimiter;
+import com.lizaveta.service.storage.io.PathLocks;
+import com.lizaveta.service.storage.listing.DirectoryMetadataCache;
+import com.lizaveta.service.storage.search.FileNameIndexService;
+import com.lizaveta.service.storage.usage.StorageUsageService;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Сервисы хранилища без контекста Spring и Mongo: зависимости, не участвующие в измеряемом пути, не создаются,
+ * учёт места заменён заглушкой, события никуда не публикуются.
+ */
+final class BenchmarkServices {
+
+    private BenchmarkServices() {
+    }
+
+    /** StorageService, для которого корень пользователя уже определён в текущем запросе. */
+    static StorageService storageService(Path userRoot, DirectoryMetadataCache metadataCache,
+                                         FileNameIndexService fileNameIndexService, StorageProperties properties) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute(StorageService.class.getName() + ".userRoot", userRoot);
+        return new StorageService(null, request, null, null, null, fileNameIndexService, null, null,
+                metadataCache, null, null, properties, null, null, null);
+    }
+
+    static FolderService folderService(StorageProperties properties, ParallelZipWriter zipWriter, BlobStore blobStore) {
+        return new FolderService(properties, zipWriter, blobStore, null, null, event -> {
+        }, null, diskLimiter());
+    }
+
+    static DiskConcurrencyLimiter diskLimiter() {
+        return new DiskConcurrencyLimiter(new ExecutionProperties());
+    }
+
+    static FileService fileService(BlobStore blobStore) {
+        return new FileService(blobStore, new UncountedUsage(), new PathLocks(), event -> {
+        });
+    }
+
+    static BlobStore blobStore(StorageProperties properties) throws IOException {
+        BlobStore blobStore = new BlobStore(properties, new CompressedContentDetector());
+        blobStore.init();
+        return blobStore;
+    }
+
+    private static class UncountedUsage extends StorageUsageService {
+
+        UncountedUsage() {
+            super(null, new StorageProperties(), null);
+        }
+
+        @Override
+        public Reservation reserveWrite(Path userRoot, Path target, long size) {
+            return new Reservation(userRoot, 0, 0);
+        }
+
+        @Override
+        public void release(Reservation reservation) {
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.lizaveta.benchmark;
+
+import com.lizaveta.config.StoragePath;
+import com.lizaveta.service.storage.util.FileUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Синтетические деревья для бенчмарков. Создаются внутри хранилища в скрытой папке .jmh, чтобы жёсткие ссылки
+ * хранилища блобов оставались в пределах одной файловой системы, а индексы и кэши не принимали их за пользователей.
+ */
+final class BenchmarkTrees {
+
+    static final int FILES_PER_DIRECTORY = 1000;
+
+    private BenchmarkTrees() {
+    }
+
+    static Path newRoot(String prefix) throws IOException {
+        Path root = StoragePath.detect().getPath().resolve(".jmh").resolve(prefix + "-" + UUID.randomUUID());
+        Files.createDirectories(root);
+        return root;
+    }
+
+    /** Плоская папка из entries пустых файлов. */
+    static void flat(Path directory, int entries) throws IOException {
+        for (int i = 0; i < entries; i++) {
+            Files.createFile(directory.resolve(fileName(i)));
+        }
+    }
+
+    /** Дерево из entries пустых файлов по {@value #FILES_PER_DIRECTORY} в папке, папки сгруппированы по 100. */
+    static void nested(Path root, int entries) throws IOException {
+        for (int i = 0; i < entries; i++) {
+            int directory = i / FILES_PER_DIRECTORY;
+            Path parent = root.resolve("group-" + directory / 100).resolve("dir-" + directory);
+            if (i % FILES_PER_DIRECTORY == 0) {
+                Files.createDirectories(parent);
+            }
+            Files.createFile(parent.resolve(fileName(i)));
+        }
+    }
+
+    /** Файл заданного размера: текст сжимается хорошо, случайные данные — нет. */
+    static void file(Path file, long size, boolean compressible, Random random) throws IOException {
+        Files.write(file, content((int) size, compressible, random));
+    }
+
+    static byte[] content(int size, boolean compressible, Random random) {
+        byte[] data = new byte[size];
+        if (compressible) {
+            byte[] line = "2024-01-01T00:00:00Z INFO request handled in 12 ms, status=200\n".getBytes();
+            for (int i = 0; i < size; i++) {
+                data[i] = line[i % line.length];
+            }
+        } else {
+            random.nextBytes(data);
+        }
+        return data;
+    }
+
+    static String fileName(int index) {
+        return "file-" + index + (index % 3 == 0 ? ".txt" : index % 3 == 1 ? ".log" : ".bin");
+    }
+
+    static void delete(Path root) throws IOException {
+        if (root != null) {
+            FileUtils.deleteRecursively(root);
+        }
+    }
+}
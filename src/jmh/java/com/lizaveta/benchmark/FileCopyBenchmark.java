@@ -0,0 +1,91 @@
+package com.lizaveta.benchmark;
+
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.service.storage.FileService;
+import com.lizaveta.service.storage.blob.BlobStore;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Циклы копирования загрузки и отдачи: {@link FileService#uploadFile} с дедупликацией и без неё
+ * (хэширование и жёсткая ссылка против простой записи) и чтение сохранённого файла потоком и через FileChannel.
+ * Пропускная способность — размер файла, делённый на среднее время операции.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FileCopyBenchmark {
+
+    @Param({"65536", "16777216"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean dedup;
+
+    private Path userRoot;
+    private FileService fileService;
+    private MockMultipartFile upload;
+    private Path stored;
+    private int uploads;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        userRoot = BenchmarkTrees.newRoot("copy");
+        StorageProperties properties = new StorageProperties();
+        properties.getDedup().setEnabled(dedup);
+        BlobStore blobStore = BenchmarkServices.blobStore(properties);
+        fileService = BenchmarkServices.fileService(blobStore);
+
+        byte[] content = BenchmarkTrees.content(size, false, new Random(42));
+        upload = new MockMultipartFile("file", "payload.bin", "application/octet-stream", content);
+        stored = userRoot.resolve(fileService.uploadFile(userRoot, upload, ""));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkTrees.delete(userRoot);
+    }
+
+    @Benchmark
+    public String upload() throws IOException {
+        // Каждая загрузка — в свою папку, чтобы не перезаписывать один и тот же путь
+        String folderId = "upload-" + (uploads++ % 64);
+        Files.createDirectories(userRoot.resolve(folderId));
+        return fileService.uploadFile(userRoot, upload, folderId);
+    }
+
+    @Benchmark
+    public long downloadStream() throws IOException {
+        try (InputStream in = new FileSystemResource(stored).getInputStream()) {
+            return in.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    @Benchmark
+    public long downloadChannel() throws IOException {
+        try (FileChannel channel = FileChannel.open(stored, StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(OutputStream.nullOutputStream());
+            long position = 0;
+            long length = channel.size();
+            while (position < length) {
+                position += channel.transferTo(position, length - position, target);
+            }
+            return position;
+        }
+    }
+}
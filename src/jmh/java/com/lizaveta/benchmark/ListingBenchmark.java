@@ -0,0 +1,57 @@
+package com.lizaveta.benchmark;
+
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.model.fileDTO.FileInfoDto;
+import com.lizaveta.service.storage.StorageService;
+import com.lizaveta.service.storage.listing.DirectoryMetadataCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Список одной папки через {@link StorageService#listFilesAsDto}: с кэшем метаданных (повторный запрос)
+ * и без него (каждый раз чтение папки с диска).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ListingBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int entries;
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private Path userRoot;
+    private DirectoryMetadataCache metadataCache;
+    private StorageService storageService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        userRoot = BenchmarkTrees.newRoot("listing");
+        BenchmarkTrees.flat(userRoot, entries);
+        StorageProperties properties = new StorageProperties();
+        properties.getMetadataCache().setEnabled(cached);
+        properties.getMetadataCache().setMaxEntries(Math.max(properties.getMetadataCache().getMaxEntries(), entries + 1L));
+        metadataCache = new DirectoryMetadataCache(properties, BenchmarkServices.blobStore(properties));
+        metadataCache.start();
+        storageService = BenchmarkServices.storageService(userRoot, metadataCache, null, properties);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        metadataCache.stop();
+        BenchmarkTrees.delete(userRoot);
+    }
+
+    @Benchmark
+    public List<FileInfoDto> listFiles() throws IOException {
+        return storageService.listFilesAsDto("");
+    }
+}
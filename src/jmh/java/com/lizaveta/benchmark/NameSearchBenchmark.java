@@ -0,0 +1,54 @@
+package com.lizaveta.benchmark;
+
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.model.fileDTO.FileInfoDto;
+import com.lizaveta.service.storage.StorageService;
+import com.lizaveta.service.storage.search.FileNameIndexService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поиск по имени через {@link StorageService#searchFilesByNameAsDto} на построенном индексе имён.
+ * Построение индекса выполняется в подготовке и в замер не входит.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class NameSearchBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int entries;
+
+    // Редкое совпадение, частое совпадение и промах
+    @Param({"file-777.", ".log", "missing"})
+    public String query;
+
+    private Path userRoot;
+    private FileNameIndexService fileNameIndexService;
+    private StorageService storageService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        userRoot = BenchmarkTrees.newRoot("search");
+        BenchmarkTrees.nested(userRoot, entries);
+        fileNameIndexService = new FileNameIndexService();
+        storageService = BenchmarkServices.storageService(userRoot, null, fileNameIndexService, new StorageProperties());
+        storageService.searchFilesByNameAsDto("warm-up");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkTrees.delete(userRoot);
+    }
+
+    @Benchmark
+    public List<FileInfoDto> searchByName() throws IOException {
+        return storageService.searchFilesByNameAsDto(query);
+    }
+}
@@ -0,0 +1,41 @@
+package com.lizaveta.benchmark;
+
+import com.lizaveta.service.storage.util.FileUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проверка пути выполняется на каждый запрос к хранилищу, поэтому важна её стоимость и аллокации.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResolveSecurePathBenchmark {
+
+    @Param({"docs/report.txt", "a/b/c/d/e/f/g/h/file.bin", "a/../b/./c/../file.log"})
+    public String relativePath;
+
+    private Path userRoot;
+
+    @Setup
+    public void setUp() {
+        userRoot = Paths.get("/srv/off-chance/storage/65a1b2c3d4e5f60718293a4b");
+    }
+
+    @Benchmark
+    public Path resolve() {
+        return FileUtils.resolveSecurePath(userRoot, relativePath);
+    }
+
+    @Benchmark
+    public Object rejectTraversal() {
+        try {
+            return FileUtils.resolveSecurePath(userRoot, "../other-user/" + relativePath);
+        } catch (SecurityException e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.lizaveta.benchmark;
+
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.service.storage.FolderService;
+import com.lizaveta.service.storage.archive.CompressedContentDetector;
+import com.lizaveta.service.storage.archive.ParallelZipWriter;
+import com.lizaveta.service.storage.blob.BlobStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сборка архива папки через {@link FolderService#zipFolder} последовательно и через {@link ParallelZipWriter}.
+ * Корпуса: много мелких текстовых файлов, несколько крупных несжимаемых и их смесь, всего около 64 МБ.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ZipFolderBenchmark {
+
+    private static final long CORPUS_SIZE = 64L * 1024 * 1024;
+
+    @Param({"text", "media", "mixed"})
+    public String corpus;
+
+    @Param({"true", "false"})
+    public boolean parallel;
+
+    private Path folder;
+    private FolderService folderService;
+    private ParallelZipWriter parallelZipWriter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = BenchmarkTrees.newRoot("zip");
+        Random random = new Random(42);
+        switch (corpus) {
+            case "text" -> fill(folder, CORPUS_SIZE, 16 * 1024, true, random);
+            case "media" -> fill(folder, CORPUS_SIZE, 8 * 1024 * 1024, false, random);
+            default -> {
+                fill(folder.resolve("logs"), CORPUS_SIZE / 2, 32 * 1024, true, random);
+                fill(folder.resolve("photos"), CORPUS_SIZE / 4, 2 * 1024 * 1024, false, random);
+                fill(folder.resolve("misc"), CORPUS_SIZE / 4, 256 * 1024, false, random);
+            }
+        }
+        StorageProperties properties = new StorageProperties();
+        properties.getArchive().setParallel(parallel);
+        BlobStore blobStore = BenchmarkServices.blobStore(properties);
+        parallelZipWriter = new ParallelZipWriter(new CompressedContentDetector(), blobStore,
+                BenchmarkServices.diskLimiter(), properties);
+        folderService = BenchmarkServices.folderService(properties, parallelZipWriter, blobStore);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        parallelZipWriter.shutdown();
+        BenchmarkTrees.delete(folder);
+    }
+
+    @Benchmark
+    public void zipFolder() throws IOException {
+        folderService.zipFolder(folder, OutputStream.nullOutputStream());
+    }
+
+    private static void fill(Path directory, long total, int fileSize, boolean compressible, Random random) throws IOException {
+        Files.createDirectories(directory);
+        for (int i = 0; (long) i * fileSize < total; i++) {
+            BenchmarkTrees.file(directory.resolve(BenchmarkTrees.fileName(i)), fileSize, compressible, random);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.lizaveta.load;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Состояние процесса за интервал: куча (текущая и после последней сборки — по её росту видна утечка
+ * при длительном прогоне), число и время сборок, глубина очередей пулов приложения из его метрик.
+ * Приложение и нагрузка работают в одном процессе, поэтому в куче и сборках есть доля генератора нагрузки.
+ */
+class JvmSampler {
+
+    private final MeterRegistry registry;
+    private long lastGcCount;
+    private long lastGcMillis;
+
+    JvmSampler(MeterRegistry registry) {
+        this.registry = registry;
+        Sample initial = sample();
+        lastGcCount = initial.totalGcCount();
+        lastGcMillis = initial.totalGcMillis();
+    }
+
+    Sample sample() {
+        long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long heapAfterGc = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage afterGc = pool.getCollectionUsage();
+            if (pool.getType() == MemoryType.HEAP && afterGc != null) {
+                heapAfterGc += afterGc.getUsed();
+            }
+        }
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += Math.max(0, collector.getCollectionCount());
+            gcMillis += Math.max(0, collector.getCollectionTime());
+        }
+        Sample sample = new Sample(mb(heapUsed), mb(heapAfterGc), gcCount - lastGcCount, gcMillis - lastGcMillis,
+                gcCount, gcMillis, queues());
+        lastGcCount = gcCount;
+        lastGcMillis = gcMillis;
+        return sample;
+    }
+
+    private Map<String, Double> queues() {
+        Map<String, Double> queues = new TreeMap<>();
+        for (Gauge gauge : registry.find("executor.queued").gauges()) {
+            queues.put(gauge.getId().getTag("name"), gauge.value());
+        }
+        Gauge transfers = registry.find("offchance.transfer.queued").gauge();
+        if (transfers != null) {
+            queues.put("transfers", transfers.value());
+        }
+        return queues;
+    }
+
+    private static double mb(long bytes) {
+        return Math.round(bytes / 1024.0 / 1024.0 * 10) / 10.0;
+    }
+
+    record Sample(double heapUsedMb, double heapAfterGcMb, long gcCount, long gcMillis,
+                  long totalGcCount, long totalGcMillis, Map<String, Double> queues) {
+    }
+}
@@ -0,0 +1,92 @@
+package com.lizaveta.load;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Задержки и исходы операций. Виртуальные пользователи пишут в {@link Recorder} без блокировок,
+ * а поток отчёта раз в интервал забирает накопленное и добавляет в итоговые гистограммы.
+ * Отказы по перегрузке (429/503) считаются отдельно от ошибок: это штатное поведение планировщика передач.
+ */
+class LatencyStats {
+
+    private static final long MAX_LATENCY_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final Map<Operation, Counters> counters = new EnumMap<>(Operation.class);
+
+    LatencyStats() {
+        for (Operation operation : Operation.values()) {
+            counters.put(operation, new Counters());
+        }
+    }
+
+    void record(Operation operation, long elapsedNanos, int status) {
+        Counters c = counters.get(operation);
+        c.recorder.recordValue(Math.min(elapsedNanos, MAX_LATENCY_NANOS));
+        if (status == 429 || status == 503) {
+            c.rejected.increment();
+        } else if (status < 200 || status >= 400) {
+            c.errors.increment();
+        }
+    }
+
+    /** Снимок за прошедший интервал; вызывается только из потока отчёта. */
+    Map<Operation, Snapshot> interval() {
+        Map<Operation, Snapshot> result = new EnumMap<>(Operation.class);
+        counters.forEach((operation, c) -> {
+            c.intervalHistogram = c.recorder.getIntervalHistogram(c.intervalHistogram);
+            c.total.add(c.intervalHistogram);
+            long rejected = c.rejected.sumThenReset();
+            long errors = c.errors.sumThenReset();
+            c.totalRejected += rejected;
+            c.totalErrors += errors;
+            result.put(operation, Snapshot.of(c.intervalHistogram, rejected, errors));
+        });
+        return result;
+    }
+
+    /** Сбрасывает итоги, например после разгона; вызывается только из потока отчёта. */
+    void resetTotals() {
+        interval();
+        counters.values().forEach(c -> {
+            c.total.reset();
+            c.totalRejected = 0;
+            c.totalErrors = 0;
+        });
+    }
+
+    Map<Operation, Snapshot> total() {
+        Map<Operation, Snapshot> result = new EnumMap<>(Operation.class);
+        counters.forEach((operation, c) -> result.put(operation, Snapshot.of(c.total, c.totalRejected, c.totalErrors)));
+        return result;
+    }
+
+    record Snapshot(long count, long rejected, long errors, double p50Millis, double p99Millis, double maxMillis) {
+
+        static Snapshot of(Histogram histogram, long rejected, long errors) {
+            return new Snapshot(histogram.getTotalCount(), rejected, errors,
+                    millis(histogram.getValueAtPercentile(50)),
+                    millis(histogram.getValueAtPercentile(99)),
+                    millis(histogram.getMaxValue()));
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+
+    private static class Counters {
+        final Recorder recorder = new Recorder(MAX_LATENCY_NANOS, 3);
+        final Histogram total = new Histogram(MAX_LATENCY_NANOS, 3);
+        final LongAdder rejected = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        Histogram intervalHistogram;
+        long totalRejected;
+        long totalErrors;
+    }
+}
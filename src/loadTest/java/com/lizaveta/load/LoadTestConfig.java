@@ -0,0 +1,49 @@
+package com.lizaveta.load;
+
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Параметры прогона из системных свойств load.*; значения по умолчанию рассчитаны на короткий прогон
+ * на одной машине.
+ */
+record LoadTestConfig(int users, Duration duration, Duration rampUp, Duration thinkTime, Duration reportInterval,
+                      DataSize fileSize, int folderFiles, Map<Operation, Integer> mix, String report) {
+
+    private static final String DEFAULT_MIX = "login=5,listing=35,search=15,upload=15,folder=5,download=20,zip=5";
+
+    static LoadTestConfig fromSystemProperties() {
+        return new LoadTestConfig(
+                Integer.getInteger("load.users", 50),
+                Duration.parse(System.getProperty("load.duration", "PT1M")),
+                Duration.parse(System.getProperty("load.rampUp", "PT10S")),
+                Duration.parse(System.getProperty("load.thinkTime", "PT0.05S")),
+                Duration.parse(System.getProperty("load.reportInterval", "PT10S")),
+                DataSize.parse(System.getProperty("load.fileSize", "256KB")),
+                Integer.getInteger("load.folderFiles", 20),
+                parseMix(System.getProperty("load.mix", DEFAULT_MIX)),
+                System.getProperty("load.report", "build/reports/load/summary.json"));
+    }
+
+    private static Map<Operation, Integer> parseMix(String value) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (String part : value.split(",")) {
+            String[] pair = part.trim().split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Некорректная доля операции в load.mix: " + part);
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Отрицательная доля операции: " + part);
+            }
+            mix.put(Operation.parse(pair[0].trim()), weight);
+        }
+        if (mix.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("В load.mix нет ни одной операции");
+        }
+        return mix;
+    }
+}
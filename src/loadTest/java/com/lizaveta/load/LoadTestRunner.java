@@ -0,0 +1,200 @@
+package com.lizaveta.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.lizaveta.RemoteBackupApplication;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Нагрузочный прогон: Mongo в памяти (mongo-java-server), приложение в том же процессе на случайном порту
+ * и load.users виртуальных пользователей на виртуальных потоках. Пользователи подключаются равномерно
+ * за load.rampUp, итоги считаются после разгона. Раз в load.reportInterval печатаются задержки, пропускная
+ * способность, куча, сборки мусора и очереди пулов приложения; итог пишется в JSON для сравнения прогонов.
+ */
+public final class LoadTestRunner {
+
+    private LoadTestRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = LoadTestConfig.fromSystemProperties();
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        System.out.printf("Нагрузочный прогон %s: пользователей %d, разгон %s, длительность %s, доли %s%n",
+                runId, config.users(), config.rampUp(), config.duration(), config.mix());
+
+        MongoServer mongo = new MongoServer(new MemoryBackend());
+        int exitCode;
+        try {
+            InetSocketAddress mongoAddress = mongo.bind();
+            // Аргументы командной строки перекрывают application.properties, в отличие от свойств по умолчанию
+            try (ConfigurableApplicationContext context = new SpringApplicationBuilder(RemoteBackupApplication.class).run(
+                    "--server.port=0",
+                    "--spring.data.mongodb.host=" + mongoAddress.getHostString(),
+                    "--spring.data.mongodb.port=" + mongoAddress.getPort(),
+                    "--spring.data.mongodb.database=off-chance_load",
+                    "--logging.level.root=WARN")) {
+                int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+                exitCode = run(config, runId, "http://127.0.0.1:" + port, context.getBean(MeterRegistry.class));
+            }
+        } finally {
+            mongo.shutdownNow();
+        }
+        System.exit(exitCode);
+    }
+
+    private static int run(LoadTestConfig config, String runId, String baseUrl, MeterRegistry registry)
+            throws InterruptedException, IOException {
+        LatencyStats stats = new LatencyStats();
+        JvmSampler sampler = new JvmSampler(registry);
+        List<Map<String, Object>> intervals = new ArrayList<>();
+        AtomicInteger failedSetups = new AtomicInteger();
+
+        try (ExecutorService users = Executors.newVirtualThreadPerTaskExecutor();
+             HttpClient client = HttpClient.newBuilder()
+                     .version(HttpClient.Version.HTTP_1_1)
+                     .connectTimeout(Duration.ofSeconds(10))
+                     .executor(users)
+                     .build()) {
+            long started = System.nanoTime();
+            long measureFrom = started + config.rampUp().toNanos();
+            long deadline = measureFrom + config.duration().toNanos();
+
+            List<Future<?>> running = new ArrayList<>();
+            for (int i = 0; i < config.users(); i++) {
+                VirtualUser user = new VirtualUser(i, runId, baseUrl, client, config, stats);
+                long delayNanos = config.rampUp().toNanos() * i / Math.max(1, config.users());
+                running.add(users.submit(() -> {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(delayNanos);
+                        user.setUp();
+                        user.run(deadline);
+                    } catch (IOException e) {
+                        failedSetups.incrementAndGet();
+                        System.err.println(e.getMessage());
+                    } finally {
+                        try {
+                            user.tearDown();
+                        } catch (IOException e) {
+                            System.err.println("Не удалось удалить пользователя: " + e.getMessage());
+                        }
+                    }
+                    return null;
+                }));
+            }
+
+            TimeUnit.NANOSECONDS.sleep(Math.max(0, measureFrom - System.nanoTime()));
+            stats.resetTotals();
+            sampler.sample();
+            long intervalNanos = config.reportInterval().toNanos();
+            long measuredFrom = System.nanoTime();
+            long lastReport = measuredFrom;
+            while (System.nanoTime() < deadline) {
+                TimeUnit.NANOSECONDS.sleep(Math.min(intervalNanos, deadline - System.nanoTime()));
+                long now = System.nanoTime();
+                intervals.add(report((now - measuredFrom) / 1e9, (now - lastReport) / 1e9, stats.interval(), sampler.sample()));
+                lastReport = now;
+            }
+            double measuredSeconds = (System.nanoTime() - measuredFrom) / 1e9;
+            for (Future<?> future : running) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    failedSetups.incrementAndGet();
+                    System.err.println("Виртуальный пользователь завершился с ошибкой: " + e.getCause());
+                }
+            }
+            return summary(config, runId, measuredSeconds, stats.total(), sampler.sample(), intervals, failedSetups.get());
+        }
+    }
+
+    private static Map<String, Object> report(double elapsedSeconds, double intervalSeconds,
+                                              Map<Operation, LatencyStats.Snapshot> snapshots, JvmSampler.Sample jvm) {
+        System.out.printf("%n[%6.0f с] куча %.1f МБ (после сборки %.1f МБ), сборок %d за %d мс, очереди %s%n",
+                elapsedSeconds, jvm.heapUsedMb(), jvm.heapAfterGcMb(), jvm.gcCount(), jvm.gcMillis(), jvm.queues());
+        long requests = 0;
+        double worstP99 = 0;
+        for (Map.Entry<Operation, LatencyStats.Snapshot> entry : snapshots.entrySet()) {
+            LatencyStats.Snapshot s = entry.getValue();
+            if (s.count() == 0) {
+                continue;
+            }
+            requests += s.count();
+            worstP99 = Math.max(worstP99, s.p99Millis());
+            System.out.printf("  %-9s %8.1f оп/с  p50 %8.1f мс  p99 %8.1f мс  отказов %d  ошибок %d%n",
+                    entry.getKey().label(), s.count() / intervalSeconds, s.p50Millis(), s.p99Millis(), s.rejected(), s.errors());
+        }
+        Map<String, Object> interval = new LinkedHashMap<>();
+        interval.put("elapsedSeconds", Math.round(elapsedSeconds));
+        interval.put("throughput", requests / intervalSeconds);
+        interval.put("worstP99Millis", worstP99);
+        interval.put("heapUsedMb", jvm.heapUsedMb());
+        interval.put("heapAfterGcMb", jvm.heapAfterGcMb());
+        interval.put("gcCount", jvm.gcCount());
+        interval.put("gcMillis", jvm.gcMillis());
+        interval.put("queues", jvm.queues());
+        return interval;
+    }
+
+    private static int summary(LoadTestConfig config, String runId, double seconds,
+                               Map<Operation, LatencyStats.Snapshot> totals, JvmSampler.Sample jvm,
+                               List<Map<String, Object>> intervals, int failedUsers) throws IOException {
+        System.out.printf("%nИтог за %.0f с (без разгона):%n", seconds);
+        System.out.printf("  %-9s %10s %10s %10s %10s %10s %8s %8s%n",
+                "операция", "запросов", "оп/с", "p50, мс", "p99, мс", "max, мс", "отказов", "ошибок");
+        Map<String, Object> operations = new LinkedHashMap<>();
+        long requests = 0;
+        long errors = 0;
+        for (Map.Entry<Operation, LatencyStats.Snapshot> entry : totals.entrySet()) {
+            LatencyStats.Snapshot s = entry.getValue();
+            if (s.count() == 0) {
+                continue;
+            }
+            requests += s.count();
+            errors += s.errors();
+            System.out.printf("  %-9s %10d %10.1f %10.1f %10.1f %10.1f %8d %8d%n", entry.getKey().label(), s.count(),
+                    s.count() / seconds, s.p50Millis(), s.p99Millis(), s.maxMillis(), s.rejected(), s.errors());
+            Map<String, Object> operation = new LinkedHashMap<>();
+            operation.put("count", s.count());
+            operation.put("throughput", s.count() / seconds);
+            operation.put("p50Millis", s.p50Millis());
+            operation.put("p99Millis", s.p99Millis());
+            operation.put("maxMillis", s.maxMillis());
+            operation.put("rejected", s.rejected());
+            operation.put("errors", s.errors());
+            operations.put(entry.getKey().label(), operation);
+        }
+        System.out.printf("  всего %.1f оп/с, ошибок %d, не подготовлено пользователей %d; сборок %d за %d мс%n",
+                requests / seconds, errors, failedUsers, jvm.totalGcCount(), jvm.totalGcMillis());
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("runId", runId);
+        report.put("users", config.users());
+        report.put("durationSeconds", seconds);
+        report.put("mix", config.mix());
+        report.put("throughput", requests / seconds);
+        report.put("failedUsers", failedUsers);
+        report.put("operations", operations);
+        report.put("gc", Map.of("count", jvm.totalGcCount(), "millis", jvm.totalGcMillis()));
+        report.put("intervals", intervals);
+        Path file = Path.of(config.report());
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), report);
+        System.out.println("Отчёт: " + file.toAbsolutePath());
+        return failedUsers > 0 || errors > 0 ? 1 : 0;
+    }
+}
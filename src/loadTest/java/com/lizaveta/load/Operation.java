@@ -0,0 +1,19 @@
+package com.lizaveta.load;
+
+import java.util.Locale;
+
+enum Operation {
+    LOGIN, LISTING, SEARCH, UPLOAD, FOLDER, DOWNLOAD, ZIP;
+
+    static Operation parse(String value) {
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Неизвестная операция: " + value);
+        }
+    }
+
+    String label() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
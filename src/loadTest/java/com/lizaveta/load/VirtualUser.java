@@ -0,0 +1,224 @@
+package com.lizaveta.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Один виртуальный пользователь: регистрируется, загружает исходную папку и до истечения срока выполняет
+ * операции в заданных долях. Cookie с токеном хранится у пользователя, поэтому HTTP-клиент общий на всех.
+ */
+class VirtualUser {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String API = "/api/off-chance";
+
+    private final int id;
+    private final String runId;
+    private final String baseUrl;
+    private final HttpClient client;
+    private final LoadTestConfig config;
+    private final LatencyStats stats;
+    private final Operation[] schedule;
+    private final Random random;
+    private final byte[] content;
+    private final List<String> knownFiles = new ArrayList<>();
+    private String cookie = "";
+    private String seedFolderId;
+    private int sequence;
+
+    VirtualUser(int id, String runId, String baseUrl, HttpClient client, LoadTestConfig config, LatencyStats stats) {
+        this.id = id;
+        this.runId = runId;
+        this.baseUrl = baseUrl;
+        this.client = client;
+        this.config = config;
+        this.stats = stats;
+        this.schedule = schedule(config.mix());
+        this.random = new Random(id);
+        this.content = new byte[(int) config.fileSize().toBytes()];
+        byte[] line = ("user " + id + " backup line with some repeated text for compression\n").getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < content.length; i++) {
+            content[i] = line[i % line.length];
+        }
+    }
+
+    void setUp() throws IOException, InterruptedException {
+        String body = json(Map.of("username", "load" + id, "password", password(), "email", email()));
+        expectOk(send(HttpRequest.newBuilder(uri("/api/users/register"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body)), HttpResponse.BodyHandlers.ofString()), "регистрация");
+        expectOk(login(), "вход");
+        HttpResponse<String> seed = uploadFolder("seed-" + id);
+        expectOk(seed, "загрузка исходной папки");
+        seedFolderId = MAPPER.readTree(seed.body()).path("folderId").asText();
+        expectOk(listing(), "список файлов");
+    }
+
+    void run(long deadlineNanos) throws InterruptedException {
+        while (System.nanoTime() < deadlineNanos && !Thread.currentThread().isInterrupted()) {
+            Operation operation = schedule[random.nextInt(schedule.length)];
+            long started = System.nanoTime();
+            int status;
+            try {
+                status = execute(operation);
+            } catch (IOException e) {
+                status = -1;
+            }
+            stats.record(operation, System.nanoTime() - started, status);
+            if (!config.thinkTime().isZero()) {
+                Thread.sleep(config.thinkTime());
+            }
+        }
+    }
+
+    void tearDown() throws IOException, InterruptedException {
+        send(HttpRequest.newBuilder(uri("/api/users/delete")).DELETE(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    private int execute(Operation operation) throws IOException, InterruptedException {
+        return switch (operation) {
+            case LOGIN -> login().statusCode();
+            case LISTING -> listing().statusCode();
+            case SEARCH -> send(HttpRequest.newBuilder(uri(API + "/search?query=load-" + id)).GET(),
+                    HttpResponse.BodyHandlers.discarding()).statusCode();
+            case UPLOAD -> upload().statusCode();
+            case FOLDER -> uploadFolder("batch-" + id + "-" + sequence++).statusCode();
+            case DOWNLOAD -> knownFiles.isEmpty()
+                    ? listing().statusCode()
+                    : send(HttpRequest.newBuilder(uri(API + "/download/" + encode(knownFiles.get(random.nextInt(knownFiles.size())))))
+                    .GET(), HttpResponse.BodyHandlers.discarding()).statusCode();
+            case ZIP -> send(HttpRequest.newBuilder(uri(API + "/download-zip/" + encode(seedFolderId))).GET(),
+                    HttpResponse.BodyHandlers.discarding()).statusCode();
+        };
+    }
+
+    private HttpResponse<String> login() throws IOException, InterruptedException {
+        String body = json(Map.of("email", email(), "password", password(), "rememberMe", false));
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri("/api/users/login"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build(), HttpResponse.BodyHandlers.ofString());
+        List<String> cookies = response.headers().allValues("Set-Cookie").stream()
+                .map(value -> value.split(";", 2)[0])
+                .toList();
+        if (!cookies.isEmpty()) {
+            cookie = String.join("; ", cookies);
+        }
+        return response;
+    }
+
+    private HttpResponse<String> listing() throws IOException, InterruptedException {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri(API + "/storage")).GET(),
+                HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() == 200) {
+            knownFiles.clear();
+            for (JsonNode entry : MAPPER.readTree(response.body())) {
+                if ("FILE".equals(entry.path("type").asText())) {
+                    knownFiles.add(entry.path("id").asText());
+                }
+            }
+        }
+        return response;
+    }
+
+    private HttpResponse<Void> upload() throws IOException, InterruptedException {
+        Multipart multipart = new Multipart();
+        multipart.file("file", "load-" + id + "-" + sequence++ + ".txt", uniqueContent(content.length));
+        return send(multipart.request(uri(API + "/upload")), HttpResponse.BodyHandlers.discarding());
+    }
+
+    private HttpResponse<String> uploadFolder(String name) throws IOException, InterruptedException {
+        Multipart multipart = new Multipart();
+        int fileSize = Math.max(1, content.length / config.folderFiles());
+        for (int i = 0; i < config.folderFiles(); i++) {
+            String relativePath = name + "/" + (i % 4 == 0 ? "nested/" : "") + "load-" + id + "-" + i + ".txt";
+            multipart.file("files", "load-" + id + "-" + i + ".txt", uniqueContent(fileSize));
+            multipart.field("relativePaths", relativePath);
+        }
+        return send(multipart.request(uri(API + "/upload-folder")), HttpResponse.BodyHandlers.ofString());
+    }
+
+    // Первые байты делают содержимое уникальным, чтобы дедупликация не превращала загрузки в создание ссылок
+    private byte[] uniqueContent(int size) {
+        byte[] data = Arrays.copyOf(content, size);
+        byte[] prefix = (runId + ":" + id + ":" + sequence + ":" + random.nextLong() + "\n").getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(prefix, 0, data, 0, Math.min(prefix.length, data.length));
+        return data;
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest.Builder builder, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        if (!cookie.isEmpty()) {
+            builder.header("Cookie", cookie);
+        }
+        return client.send(builder.build(), handler);
+    }
+
+    private String email() {
+        return "load-" + runId + "-" + id + "@load.test";
+    }
+
+    private String password() {
+        return "load-password-" + id;
+    }
+
+    private URI uri(String path) {
+        return URI.create(baseUrl + path);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    private static String json(Map<String, Object> value) throws IOException {
+        return MAPPER.writeValueAsString(value);
+    }
+
+    private static void expectOk(HttpResponse<?> response, String step) throws IOException {
+        if (response.statusCode() >= 300) {
+            throw new IOException("Подготовка пользователя не удалась (" + step + "): HTTP " + response.statusCode());
+        }
+    }
+
+    private static Operation[] schedule(Map<Operation, Integer> mix) {
+        List<Operation> slots = new ArrayList<>();
+        mix.forEach((operation, weight) -> slots.addAll(Collections.nCopies(weight, operation)));
+        return slots.toArray(Operation[]::new);
+    }
+
+    private static class Multipart {
+        private final String boundary = "load-" + UUID.randomUUID();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        void field(String name, String value) {
+            write("--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value + "\r\n");
+        }
+
+        void file(String name, String fileName, byte[] data) {
+            write("--" + boundary + "\r\nContent-Disposition: form-data; name=\"" + name + "\"; filename=\"" + fileName
+                    + "\"\r\nContent-Type: text/plain\r\n\r\n");
+            body.writeBytes(data);
+            write("\r\n");
+        }
+
+        HttpRequest.Builder request(URI uri) {
+            write("--" + boundary + "--\r\n");
+            return HttpRequest.newBuilder(uri)
+                    .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()));
+        }
+
+        private void write(String text) {
+            body.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -1,24 +1,57 @@
 package com.lizaveta.config;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
-import java.util.concurrent.Executor;
-
+@Slf4j
 @Configuration
 @EnableAsync
 public class AsyncConfig {
 
     @Bean(name = "executorService")
-    public Executor taskExecutor() {
+    public AsyncTaskExecutor taskExecutor(ExecutionProperties properties) {
+        if (properties.getMode() == ExecutionProperties.Mode.VIRTUAL) {
+            // Блокирующий ввод-вывод не занимает поток платформы; нагрузку на диск ограничивает DiskConcurrencyLimiter
+            log.info("Асинхронные задачи выполняются на виртуальных потоках");
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("AsyncUploader-");
+            executor.setVirtualThreads(true);
+            return executor;
+        }
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(4);
-        executor.setMaxPoolSize(10);
-        executor.setQueueCapacity(100);
+        executor.setCorePoolSize(properties.getPool().getCoreSize());
+        executor.setMaxPoolSize(properties.getPool().getMaxSize());
+        executor.setQueueCapacity(properties.getPool().getQueueCapacity());
+        executor.setAllowCoreThreadTimeOut(true);
         executor.setThreadNamePrefix("AsyncUploader-");
         executor.initialize();
         return executor;
     }
-}
\ No newline at end of file
+
+    /**
+     * Пул передач TransferScheduler, отдельный от пула MVC: долгие потоковые архивы не занимают потоки,
+     * на которые рассчитывает планировщик. Планировщик сам не запускает больше maxConcurrent передач,
+     * очередь лишь покрывает момент, когда завершённая передача ещё не вернула поток в пул.
+     */
+    @Bean(name = "transferExecutor")
+    public AsyncTaskExecutor transferExecutor(ExecutionProperties properties) {
+        if (properties.getMode() == ExecutionProperties.Mode.VIRTUAL) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("Transfer-");
+            executor.setVirtualThreads(true);
+            return executor;
+        }
+        int maxConcurrent = properties.getTransfer().getMaxConcurrent();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(maxConcurrent);
+        executor.setMaxPoolSize(maxConcurrent);
+        executor.setQueueCapacity(maxConcurrent);
+        executor.setAllowCoreThreadTimeOut(true);
+        executor.setThreadNamePrefix("Transfer-");
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,37 @@
+package com.lizaveta.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "off-chance.auth")
+public class AuthProperties {
+
+    private Duration tokenTtl = Duration.ofDays(30);
+    private final TokenCache tokenCache = new TokenCache();
+    private final Hashing hashing = new Hashing();
+
+    @Getter
+    @Setter
+    public static class TokenCache {
+        private long maximumSize = 10_000;
+        private Duration ttl = Duration.ofMinutes(5);
+    }
+
+    @Getter
+    @Setter
+    public static class Hashing {
+        /** Потоки для хэширования паролей; больше числа ядер не даёт выигрыша — работа чисто вычислительная. */
+        private int threads = Runtime.getRuntime().availableProcessors();
+        /** Запросы сверх очереди сразу получают 503, а не занимают потоки запросов в ожидании. */
+        private int queueCapacity = 64;
+        /** Число итераций PBKDF2; хэши с меньшим числом пересчитываются при следующем входе. */
+        private int iterations = 310_000;
+        /** Предельное ожидание результата вместе с очередью. */
+        private Duration timeout = Duration.ofSeconds(5);
+    }
+}
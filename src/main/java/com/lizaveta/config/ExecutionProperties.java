@@ -0,0 +1,46 @@
+package com.lizaveta.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "off-chance.execution")
+public class ExecutionProperties {
+
+    public enum Mode {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    // VIRTUAL — задача на виртуальный поток, параллелизм ограничивается только diskConcurrency
+    private Mode mode = Mode.PLATFORM;
+    // Одновременных операций ввода-вывода на одно файловое хранилище
+    private int diskConcurrency = 16;
+    private final Pool pool = new Pool();
+    private final Transfer transfer = new Transfer();
+
+    @Getter
+    @Setter
+    public static class Pool {
+        // Потоки сверх core создаются только при заполненной очереди, поэтому core равен max
+        private int coreSize = 10;
+        private int maxSize = 10;
+        private int queueCapacity = 100;
+    }
+
+    @Getter
+    @Setter
+    public static class Transfer {
+        private int maxConcurrent = 10;
+        private int maxActivePerUser = 4;
+        private int queueCapacity = 200;
+        private int perUserQueueCapacity = 20;
+        private Duration retryAfter = Duration.ofSeconds(5);
+        // Сколько передача на потоке запроса ждёт места, прежде чем получить отказ
+        private Duration admissionTimeout = Duration.ofSeconds(30);
+    }
+}
@@ -0,0 +1,63 @@
+package com.lizaveta.config;
+
+import com.lizaveta.model.User;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Проверяет при старте, что индексы, объявленные на документах, действительно есть в базе.
+ * Автосоздание может быть выключено или не справиться (например, при ручных индексах с другими параметрами),
+ * поэтому расхождение сообщается в лог.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MongoIndexVerifier {
+
+    private static final List<Class<?>> INDEXED_DOCUMENTS = List.of(User.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final MongoMappingContext mappingContext;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void verifyIndexes() {
+        MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext);
+        for (Class<?> type : INDEXED_DOCUMENTS) {
+            String collection = mongoTemplate.getCollectionName(type);
+            List<IndexInfo> existing = mongoTemplate.indexOps(type).getIndexInfo();
+            int missing = 0;
+            for (IndexDefinition definition : resolver.resolveIndexFor(type)) {
+                if (existing.stream().noneMatch(index -> matches(index, definition))) {
+                    missing++;
+                    log.warn("В коллекции '{}' отсутствует индекс {} {}", collection,
+                            definition.getIndexKeys().toJson(), definition.getIndexOptions().toJson());
+                }
+            }
+            if (missing == 0) {
+                log.info("Индексы коллекции '{}' на месте", collection);
+            }
+        }
+    }
+
+    private boolean matches(IndexInfo index, IndexDefinition definition) {
+        Set<String> keys = index.getIndexFields().stream().map(IndexField::getKey).collect(Collectors.toSet());
+        Document options = definition.getIndexOptions();
+        return keys.equals(definition.getIndexKeys().keySet())
+                && index.isUnique() == options.getBoolean("unique", false)
+                && index.isSparse() == options.getBoolean("sparse", false);
+    }
+}
@@ -1,10 +1,13 @@
 package com.lizaveta.config;
 
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
+import org.springframework.boot.actuate.autoconfigure.web.server.ManagementServerProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.util.matcher.RequestMatcher;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
@@ -15,7 +18,13 @@ import java.util.List;
 public class SecurityConfig {
 
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain securityFilterChain(HttpSecurity http,
+                                                   ManagementServerProperties managementServerProperties) throws Exception {
+        // Actuator открыт только на отдельном порту управления (он слушает localhost), на основном порту — нет
+        Integer managementPort = managementServerProperties.getPort();
+        RequestMatcher managementEndpoints = request -> managementPort != null
+                && request.getLocalPort() == managementPort
+                && EndpointRequest.to("health", "prometheus").matches(request);
         http
                 .cors(Customizer.withDefaults())
                 .authorizeHttpRequests(authorize -> authorize
@@ -25,6 +34,7 @@ public class SecurityConfig {
                                 "/email_verified.html", "/storage.html", "/account.html",
                                 "/api/users/**", "/api/off-chance/**"
                         ).permitAll()
+                        .requestMatchers(managementEndpoints).permitAll()
                         .anyRequest().authenticated()
                 )
                 .csrf(csrf -> csrf.disable())
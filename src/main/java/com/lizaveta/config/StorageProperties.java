@@ -0,0 +1,121 @@
+package com.lizaveta.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.zip.Deflater;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "off-chance.storage")
+public class StorageProperties {
+
+    private final Archive archive = new Archive();
+    private final Upload upload = new Upload();
+    private final Dedup dedup = new Dedup();
+    private final Delta delta = new Delta();
+    private final ContentSearch contentSearch = new ContentSearch();
+    private final Listing listing = new Listing();
+    private final MetadataCache metadataCache = new MetadataCache();
+    private final Quota quota = new Quota();
+    private final FolderUpload folderUpload = new FolderUpload();
+    private final Compression compression = new Compression();
+
+    @Getter
+    @Setter
+    public static class Archive {
+        private boolean parallel = true;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+        private DataSize inMemoryEntryLimit = DataSize.ofMegabytes(1);
+        // Таймаут асинхронной отдачи архива; у остальных асинхронных запросов он короче
+        private Duration streamTimeout = Duration.ofHours(6);
+    }
+
+    @Getter
+    @Setter
+    public static class Upload {
+        private DataSize chunkSize = DataSize.ofMegabytes(8);
+        private DataSize maxChunkSize = DataSize.ofMegabytes(64);
+        private int maxChunkCount = 100_000;
+        private DataSize maxFileSize = DataSize.ofGigabytes(8);
+        private Duration sessionTtl = Duration.ofHours(24);
+    }
+
+    @Getter
+    @Setter
+    public static class Dedup {
+        private boolean enabled = true;
+    }
+
+    @Getter
+    @Setter
+    public static class Delta {
+        private DataSize blockSize = DataSize.ofKilobytes(64);
+        private DataSize minBlockSize = DataSize.ofKilobytes(1);
+        private DataSize maxBlockSize = DataSize.ofMegabytes(8);
+    }
+
+    @Getter
+    @Setter
+    public static class ContentSearch {
+        private boolean enabled = true;
+        private int threads = 2;
+        private int queueCapacity = 10_000;
+        private DataSize maxFileSize = DataSize.ofMegabytes(100);
+        private int maxCharacters = 1_000_000;
+        private int maxResults = 100;
+    }
+
+    @Getter
+    @Setter
+    public static class Listing {
+        private int defaultPageSize = 200;
+        private int maxPageSize = 1000;
+    }
+
+    @Getter
+    @Setter
+    public static class MetadataCache {
+        private boolean enabled = true;
+        // Суммарное число записей во всех закэшированных папках
+        private long maxEntries = 500_000;
+        // Ограничение числа наблюдений inotify (fs.inotify.max_user_watches)
+        private int maxWatchedDirectories = 4096;
+        private Duration ttl = Duration.ofMinutes(10);
+    }
+
+    @Getter
+    @Setter
+    public static class Quota {
+        private boolean enabled = true;
+        // Квота пользователя, если в user_usage не задана индивидуальная
+        private DataSize defaultQuota = DataSize.ofGigabytes(10);
+    }
+
+    @Getter
+    @Setter
+    public static class FolderUpload {
+        private boolean parallel = true;
+        // Общий пул записи файлов для всех загрузок папок
+        private int threads = 8;
+        // Сколько файлов пишется перед общим fsync
+        private int syncBatchSize = 64;
+        private boolean sync = true;
+    }
+
+    @Getter
+    @Setter
+    public static class Compression {
+        private boolean enabled = false;
+        // Быстрый уровень gzip: на записи важнее скорость, чем последние проценты сжатия
+        private int level = Deflater.BEST_SPEED;
+        private DataSize minFileSize = DataSize.ofKilobytes(4);
+        // Сжимается пробный фрагмент из начала файла; при худшем отношении файл хранится как есть
+        private DataSize sampleSize = DataSize.ofKilobytes(64);
+        private double maxRatio = 0.9;
+    }
+}
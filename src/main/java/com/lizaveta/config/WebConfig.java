@@ -1,12 +1,21 @@
 package com.lizaveta.config;
 
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
 
+    private final AsyncTaskExecutor executorService;
+
+    public WebConfig(@Qualifier("executorService") AsyncTaskExecutor executorService) {
+        this.executorService = executorService;
+    }
+
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
@@ -15,4 +24,11 @@ public class WebConfig implements WebMvcConfigurer {
                 .allowedHeaders("*")
                 .allowCredentials(true);
     }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        // Общий таймаут конечный (spring.mvc.async.request-timeout): зависший клиент не держит поток пула вечно.
+        // Потоковым архивам отдельный, более долгий таймаут выставляет сам обработчик
+        configurer.setTaskExecutor(executorService);
+    }
 }
@@ -0,0 +1,77 @@
+package com.lizaveta.controller;
+
+import com.lizaveta.model.deltaDTO.DeltaSignatureDTO;
+import com.lizaveta.service.storage.StorageService;
+import com.lizaveta.service.storage.delta.DeltaSyncService;
+import com.lizaveta.service.storage.transfer.TransferRejectedException;
+import com.lizaveta.service.storage.usage.QuotaExceededException;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/off-chance/delta")
+@RequiredArgsConstructor
+public class DeltaSyncController {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeltaSyncController.class);
+
+    private final StorageService storageService;
+    private final DeltaSyncService deltaSyncService;
+
+    @GetMapping("/signature")
+    public ResponseEntity<DeltaSignatureDTO> signature(@RequestParam String fileId,
+                                                       @RequestParam(required = false) Integer blockSize) throws IOException {
+        logger.debug("Запрос подписей блоков файла '{}'", fileId);
+        return ResponseEntity.ok(deltaSyncService.signature(storageService.getUserStorageRoot(), fileId, blockSize));
+    }
+
+    @PostMapping("/apply")
+    public ResponseEntity<String> apply(@RequestParam String baseFileId,
+                                        @RequestParam int blockSize,
+                                        @RequestParam(required = false) String fileName,
+                                        HttpServletRequest request) throws IOException {
+        logger.debug("Сборка новой версии файла '{}' по дельте, размер рецепта {} байт",
+                baseFileId, request.getContentLengthLong());
+        Path userRoot = storageService.getUserStorageRoot();
+        String fileId = storageService.runTransfer(userRoot, () -> deltaSyncService.apply(userRoot, baseFileId, blockSize,
+                fileName, request.getInputStream()));
+        return ResponseEntity.status(HttpStatus.CREATED).body(fileId);
+    }
+
+    @ExceptionHandler(FileNotFoundException.class)
+    public ResponseEntity<Map<String, String>> handleNotFound(FileNotFoundException ex) {
+        logger.warn("Базовая версия не найдена: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("message", ex.getMessage()));
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, String>> handleBadRequest(IllegalArgumentException ex) {
+        logger.warn("Некорректная дельта: {}", ex.getMessage());
+        return ResponseEntity.badRequest().body(Map.of("message", ex.getMessage()));
+    }
+
+    @ExceptionHandler(QuotaExceededException.class)
+    public ResponseEntity<Map<String, String>> handleQuotaExceeded(QuotaExceededException ex) {
+        logger.warn("Загрузка отклонена: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(Map.of("message", ex.getMessage()));
+    }
+
+    @ExceptionHandler(TransferRejectedException.class)
+    public ResponseEntity<Map<String, String>> handleTransferRejected(TransferRejectedException ex) {
+        logger.warn("Передача отклонена: {}", ex.getMessage());
+        return ResponseEntity.status(ex.isPerUser() ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, ex.getRetryAfter().toSeconds())))
+                .body(Map.of("message", ex.getMessage()));
+    }
+}
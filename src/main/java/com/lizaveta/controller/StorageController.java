@@ -1,18 +1,39 @@
 package com.lizaveta.controller;
 
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.controller.support.AsyncTimeouts;
+import com.lizaveta.controller.support.ConditionalRequests;
+import com.lizaveta.controller.support.FileResponseFactory;
+import com.lizaveta.model.fileDTO.ContentSearchResultDto;
+import com.lizaveta.model.fileDTO.DirectoryCacheStatsDto;
 import com.lizaveta.model.fileDTO.FileInfoDto;
+import com.lizaveta.model.fileDTO.FileListPageDto;
+import com.lizaveta.model.fileDTO.FolderSizeDto;
+import com.lizaveta.model.fileDTO.StorageUsageDto;
+import com.lizaveta.model.uploadDTO.HashUploadRequestDTO;
+import com.lizaveta.model.uploadDTO.StreamUploadResultDTO;
+import com.lizaveta.model.uploadDTO.TransferStatsDTO;
+import com.lizaveta.service.storage.FolderService;
 import com.lizaveta.service.storage.StorageService;
+import com.lizaveta.service.storage.transfer.TransferRejectedException;
+import com.lizaveta.service.storage.upload.StreamingUploadService;
+import com.lizaveta.service.storage.usage.QuotaExceededException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.util.UriUtils;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
@@ -27,39 +48,111 @@ public class StorageController {
     private static final Logger logger = LoggerFactory.getLogger(StorageController.class);
 
     private final StorageService storageService;
+    private final FileResponseFactory fileResponseFactory;
+    private final StreamingUploadService streamingUploadService;
+    private final StorageProperties storageProperties;
 
     @GetMapping("/storage")
     public ResponseEntity<List<FileInfoDto>> listFiles(
-            @RequestParam(value = "relativePath", required = false, defaultValue = "") String relativePath)
-            throws IOException {
-        logger.info("Получение списка файлов по пути: '{}'", relativePath);
+            @RequestParam(value = "relativePath", required = false, defaultValue = "") String relativePath,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        logger.debug("Получение списка файлов по пути: '{}'", relativePath);
         List<FileInfoDto> files = storageService.listFilesAsDto(relativePath);
-        logger.info("Найдено {} файлов", files.size());
+        logger.debug("Найдено {} файлов", files.size());
+        if (ConditionalRequests.isNotModified(request, response, ConditionalRequests.weakETag(files), -1)) {
+            return null;
+        }
         return ResponseEntity.ok(files);
     }
 
+    @GetMapping(value = "/storage", params = "limit")
+    public ResponseEntity<FileListPageDto> listFilesPage(
+            @RequestParam(value = "relativePath", required = false, defaultValue = "") String relativePath,
+            @RequestParam Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "name") String sort,
+            @RequestParam(defaultValue = "asc") String order,
+            @RequestParam(defaultValue = "false") boolean details,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        logger.debug("Получение страницы списка файлов по пути: '{}', сортировка {} {}", relativePath, sort, order);
+        FileListPageDto page = storageService.listFilesPage(relativePath, sort, "desc".equalsIgnoreCase(order),
+                limit, cursor, details);
+        logger.debug("Отдано {} из {} записей", page.getItems().size(), page.getTotal());
+        String eTag = ConditionalRequests.weakETag(page.getItems(), page.getNextCursor(), page.getTotal());
+        if (ConditionalRequests.isNotModified(request, response, eTag, -1)) {
+            return null;
+        }
+        return ResponseEntity.ok(page);
+    }
+
+    @GetMapping("/storage/size")
+    public ResponseEntity<FolderSizeDto> folderSize(
+            @RequestParam(value = "relativePath", required = false, defaultValue = "") String relativePath,
+            @RequestParam(defaultValue = "50") int limit) throws IOException {
+        logger.debug("Получение размера папки: '{}'", relativePath);
+        FolderSizeDto size = storageService.getFolderSize(relativePath, limit);
+        logger.debug("Размер папки '{}': {} байт, файлов {}", relativePath, size.getBytes(), size.getFiles());
+        return ResponseEntity.ok(size);
+    }
+
+    @GetMapping("/usage")
+    public ResponseEntity<StorageUsageDto> usage() throws IOException {
+        return ResponseEntity.ok(storageService.getUsage());
+    }
+
+    @GetMapping("/transfers/stats")
+    public ResponseEntity<TransferStatsDTO> transferStats() throws IOException {
+        return ResponseEntity.ok(storageService.getTransferStats());
+    }
+
+    @GetMapping("/storage/cache-stats")
+    public ResponseEntity<DirectoryCacheStatsDto> directoryCacheStats() throws IOException {
+        return ResponseEntity.ok(storageService.getDirectoryCacheStats());
+    }
+
     @GetMapping("/search")
     public ResponseEntity<List<FileInfoDto>> searchFiles(@RequestParam String query) throws IOException {
-        logger.info("Поиск файлов по имени: '{}'", query);
+        logger.debug("Поиск файлов по имени: '{}'", query);
         List<FileInfoDto> results = storageService.searchFilesByNameAsDto(query);
-        logger.info("Найдено {} совпадений", results.size());
+        logger.debug("Найдено {} совпадений", results.size());
+        return ResponseEntity.ok(results);
+    }
+
+    @GetMapping(value = "/search", params = "mode=content")
+    public ResponseEntity<List<ContentSearchResultDto>> searchContent(@RequestParam String query) throws IOException {
+        logger.debug("Поиск файлов по содержимому: '{}'", query);
+        List<ContentSearchResultDto> results = storageService.searchFilesByContent(query);
+        logger.debug("Найдено {} документов", results.size());
         return ResponseEntity.ok(results);
     }
 
     @PostMapping("/upload-folder")
-    public CompletableFuture<ResponseEntity<String>> uploadFolderFromClient(
+    public CompletableFuture<ResponseEntity<?>> uploadFolderFromClient(
             @RequestParam("files") List<MultipartFile> files,
             @RequestParam("relativePaths") List<String> relativePaths,
             @RequestParam(value = "parentFolderId", required = false, defaultValue = "") String parentFolderId
     ) throws IOException {
-        logger.info("Загрузка папки: файлов = {}, родительская папка ID = '{}'", files.size(), parentFolderId);
+        logger.debug("Загрузка папки: файлов = {}, родительская папка ID = '{}'", files.size(), parentFolderId);
         Path userRootPath = storageService.getUserStorageRoot();
         return storageService.uploadFolderAsync(files, relativePaths, parentFolderId, userRootPath)
-                .thenApply(v -> {
-                    logger.info("Папка успешно загружена");
-                    return ResponseEntity.status(HttpStatus.CREATED).body("Папка загружена успешно");
+                .<ResponseEntity<?>>thenApply(result -> {
+                    if (result.failedFiles().isEmpty()) {
+                        logger.debug("Папка успешно загружена: файлов {}", result.storedFiles());
+                        return ResponseEntity.status(HttpStatus.CREATED).body(result);
+                    }
+                    // Часть файлов не сохранена — клиент получает список ошибок по файлам
+                    logger.warn("Папка загружена частично: сохранено {}, ошибок {}",
+                            result.storedFiles(), result.failedFiles().size());
+                    return ResponseEntity.status(result.storedFiles() > 0 ? HttpStatus.MULTI_STATUS : HttpStatus.INTERNAL_SERVER_ERROR)
+                            .body(result);
                 })
                 .exceptionally(ex -> {
+                    ResponseEntity<String> rejected = rejectedResponse(ex);
+                    if (rejected != null) {
+                        return rejected;
+                    }
                     logger.error("Ошибка при загрузке папки: {}", ex.getMessage(), ex);
                     return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                             .body("Ошибка при загрузке папки");
@@ -71,63 +164,94 @@ public class StorageController {
             @RequestParam("file") MultipartFile file,
             @RequestParam(value = "folderId", required = false, defaultValue = "") String folderId
     ) throws IOException {
-        logger.info("Загрузка файла: '{}', в папку '{}'", file.getOriginalFilename(), folderId);
+        logger.debug("Загрузка файла: '{}', в папку '{}'", file.getOriginalFilename(), folderId);
         Path userRootPath = storageService.getUserStorageRoot();
         return storageService.uploadMultipartFileAsync(file, folderId, userRootPath)
                 .thenApply(v -> {
-                    logger.info("Файл '{}' загружен успешно", file.getOriginalFilename());
+                    logger.debug("Файл '{}' загружен успешно", file.getOriginalFilename());
                     return ResponseEntity.status(HttpStatus.CREATED).body("Загрузка начата");
                 })
                 .exceptionally(ex -> {
+                    ResponseEntity<String> rejected = rejectedResponse(ex);
+                    if (rejected != null) {
+                        return rejected;
+                    }
                     logger.error("Ошибка при загрузке файла '{}': {}", file.getOriginalFilename(), ex.getMessage(), ex);
                     return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                             .body("Ошибка при загрузке файла");
                 });
     }
 
-    @GetMapping("/download/{fileId}")
-    public CompletableFuture<ResponseEntity<byte[]>> downloadFileAsync(@PathVariable String fileId) throws IOException {
-        logger.info("Запрос на скачивание файла: '{}'", fileId);
+    @PostMapping(value = "/upload-stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<?> uploadStream(HttpServletRequest request) throws IOException {
+        logger.debug("Потоковая загрузка, размер запроса: {} байт", request.getContentLengthLong());
         Path userRootPath = storageService.getUserStorageRoot();
-        return storageService.downloadFileToByteArrayAsync(fileId, userRootPath)
-                .thenApply(bytes -> {
-                    logger.info("Файл '{}' успешно загружен в память", fileId);
-                    return ResponseEntity.ok()
-                            .header(HttpHeaders.CONTENT_DISPOSITION,
-                                    "attachment; filename=\"" + Path.of(fileId).getFileName() + "\"")
-                            .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                            .body(bytes);
-                })
-                .exceptionally(ex -> {
-                    logger.error("Ошибка при скачивании файла '{}': {}", fileId, ex.getMessage(), ex);
-                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-                });
+        StreamUploadResultDTO result = storageService.runTransfer(userRootPath, () -> streamingUploadService.ingest(
+                userRootPath, request.getContentType(), request.getContentLengthLong(), request.getInputStream()));
+        logger.debug("Потоковая загрузка завершена: сохранено файлов {}, с ошибкой {}",
+                result.storedFiles().size(), result.failedFiles().size());
+        if (result.failedFiles().isEmpty()) {
+            return ResponseEntity.status(HttpStatus.CREATED).body(result.storedFiles());
+        }
+        return ResponseEntity.status(result.storedFiles().isEmpty() ? HttpStatus.INTERNAL_SERVER_ERROR : HttpStatus.MULTI_STATUS)
+                .body(result);
     }
 
-    @GetMapping("/download-zip/{folderId}")
-    public CompletableFuture<ResponseEntity<byte[]>> downloadFolderAsZipAsync(@PathVariable String folderId) throws IOException {
-        logger.info("Запрос на скачивание архива папки: '{}'", folderId);
+    @PostMapping("/upload-by-hash")
+    public ResponseEntity<String> uploadByHash(@RequestBody HashUploadRequestDTO request) throws IOException {
+        logger.debug("Загрузка по хэшу: '{}', файл '{}'", request.sha256(), request.fileName());
         Path userRootPath = storageService.getUserStorageRoot();
+        return storageService.uploadByHash(request, userRootPath)
+                .map(fileId -> ResponseEntity.status(HttpStatus.CREATED).body(fileId))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
 
-        return storageService.downloadFolderAsZipAsync(folderId, userRootPath)
-                .thenApply(bytes -> {
-                    String safeFolderName = folderId.replace("/", "_");
-                    if (!safeFolderName.toLowerCase().endsWith(".zip")) {
-                        safeFolderName += ".zip";
-                    }
+    @GetMapping("/download/{fileId}")
+    public ResponseEntity<?> downloadFile(@PathVariable String fileId,
+                                          HttpServletRequest request,
+                                          HttpServletResponse response) throws IOException {
+        logger.debug("Запрос на скачивание файла: '{}', Range = '{}'", fileId, request.getHeader(HttpHeaders.RANGE));
+        FileSystemResource resource = storageService.getFileForDownload(fileId);
+        return fileResponseFactory.download(resource, Path.of(fileId).getFileName().toString(), request, response);
+    }
 
-                    logger.info("Папка '{}' успешно заархивирована", folderId);
-                    return ResponseEntity.ok()
-                            .header(HttpHeaders.CONTENT_DISPOSITION,
-                                    "attachment; filename=\"" + safeFolderName + "\";" +
-                                            "filename*=UTF-8''" + UriUtils.encode(safeFolderName, StandardCharsets.UTF_8))
-                            .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                            .body(bytes);
-                })
-                .exceptionally(ex -> {
-                    logger.error("Ошибка при скачивании архива папки '{}': {}", folderId, ex.getMessage(), ex);
-                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-                });
+    @GetMapping("/download-zip/{folderId}")
+    public ResponseEntity<StreamingResponseBody> downloadFolderAsZip(@PathVariable String folderId,
+                                                                     HttpServletRequest request,
+                                                                     HttpServletResponse response) throws IOException {
+        logger.debug("Запрос на скачивание архива папки: '{}'", folderId);
+        Path folderPath = storageService.getFolderForDownload(folderId);
+
+        // Архив не побайтово воспроизводим, поэтому тег слабый: равны файлы внутри, а не байты архива
+        FolderService.ArchiveVersion version = storageService.getArchiveVersion(folderPath);
+        if (ConditionalRequests.isNotModified(request, response, "W/\"" + version.fingerprint() + "\"", version.lastModified())) {
+            logger.debug("Архив папки '{}' не изменился", folderId);
+            return null;
+        }
+
+        String safeFolderName = folderId.replace("/", "_");
+        if (!safeFolderName.toLowerCase().endsWith(".zip")) {
+            safeFolderName += ".zip";
+        }
+
+        // Архив большой папки медленному клиенту отдаётся дольше общего таймаута асинхронных запросов
+        AsyncTimeouts.override(request, storageProperties.getArchive().getStreamTimeout());
+        StreamingResponseBody body = outputStream -> {
+            try {
+                storageService.writeFolderAsZip(folderPath, outputStream);
+                logger.debug("Архив папки '{}' успешно передан", folderId);
+            } catch (IOException e) {
+                logger.error("Ошибка при потоковой передаче архива папки '{}': {}", folderId, e.getMessage(), e);
+                throw e;
+            }
+        };
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"" + safeFolderName + "\";" +
+                                "filename*=UTF-8''" + UriUtils.encode(safeFolderName, StandardCharsets.UTF_8))
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(body);
     }
 
     @PostMapping("/create-folder")
@@ -135,25 +259,64 @@ public class StorageController {
             @RequestParam String name,
             @RequestParam(value = "parentFolderId", required = false, defaultValue = "") String parentFolderId)
             throws IOException {
-        logger.info("Создание папки: '{}', родительская папка ID = '{}'", name, parentFolderId);
+        logger.debug("Создание папки: '{}', родительская папка ID = '{}'", name, parentFolderId);
         String folderId = storageService.createFolder(name, parentFolderId);
-        logger.info("Папка успешно создана: '{}'", folderId);
+        logger.debug("Папка успешно создана: '{}'", folderId);
         return ResponseEntity.status(HttpStatus.CREATED).body(folderId);
     }
 
     @DeleteMapping("/delete-file")
     public ResponseEntity<Void> deleteFile(@RequestParam String filePath) throws IOException {
-        logger.info("Удаление файла: '{}'", filePath);
+        logger.debug("Удаление файла: '{}'", filePath);
         storageService.deleteFile(filePath);
-        logger.info("Файл '{}' удалён", filePath);
+        logger.debug("Файл '{}' удалён", filePath);
         return ResponseEntity.noContent().build();
     }
 
     @DeleteMapping("/delete-folder/{folderId}")
     public ResponseEntity<Void> deleteFolder(@PathVariable String folderId) throws IOException {
-        logger.info("Удаление папки: '{}'", folderId);
+        logger.debug("Удаление папки: '{}'", folderId);
         storageService.deleteFolderRecursively(folderId);
-        logger.info("Папка '{}' удалена", folderId);
+        logger.debug("Папка '{}' удалена", folderId);
         return ResponseEntity.noContent().build();
     }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleBadRequest(IllegalArgumentException ex) {
+        logger.warn("Некорректный запрос: {}", ex.getMessage());
+        return ResponseEntity.badRequest().body(ex.getMessage());
+    }
+
+    @ExceptionHandler(FileNotFoundException.class)
+    public ResponseEntity<Void> handleFileNotFound(FileNotFoundException ex) {
+        logger.warn("Файл не найден: {}", ex.getMessage());
+        return ResponseEntity.notFound().build();
+    }
+
+    @ExceptionHandler(QuotaExceededException.class)
+    public ResponseEntity<String> handleQuotaExceeded(QuotaExceededException ex) {
+        logger.warn("Загрузка отклонена: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(ex.getMessage());
+    }
+
+    @ExceptionHandler(TransferRejectedException.class)
+    public ResponseEntity<String> handleTransferRejected(TransferRejectedException ex) {
+        logger.warn("Передача отклонена: {}", ex.getMessage());
+        return ResponseEntity.status(ex.isPerUser() ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, ex.getRetryAfter().toSeconds())))
+                .body(ex.getMessage());
+    }
+
+    // Отказы, случившиеся уже внутри асинхронной передачи, отдаются с тем же статусом, что и синхронные
+    private ResponseEntity<String> rejectedResponse(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof QuotaExceededException quotaExceeded) {
+                return handleQuotaExceeded(quotaExceeded);
+            }
+            if (cause instanceof TransferRejectedException transferRejected) {
+                return handleTransferRejected(transferRejected);
+            }
+        }
+        return null;
+    }
 }
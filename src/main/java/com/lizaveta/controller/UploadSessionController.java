@@ -0,0 +1,110 @@
+package com.lizaveta.controller;
+
+import com.lizaveta.model.uploadDTO.CreateUploadSessionRequestDTO;
+import com.lizaveta.model.uploadDTO.UploadSessionStatusDTO;
+import com.lizaveta.service.storage.StorageService;
+import com.lizaveta.service.storage.transfer.TransferRejectedException;
+import com.lizaveta.service.storage.upload.UploadSessionService;
+import com.lizaveta.service.storage.usage.QuotaExceededException;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/off-chance/upload-sessions")
+@RequiredArgsConstructor
+public class UploadSessionController {
+
+    private static final Logger logger = LoggerFactory.getLogger(UploadSessionController.class);
+
+    private final StorageService storageService;
+    private final UploadSessionService uploadSessionService;
+
+    @PostMapping
+    public ResponseEntity<UploadSessionStatusDTO> createSession(@RequestBody CreateUploadSessionRequestDTO request)
+            throws IOException {
+        logger.debug("Создание сессии загрузки: файл '{}', размер {}, папка '{}'",
+                request.fileName(), request.size(), request.folderId());
+        UploadSessionStatusDTO status = uploadSessionService.createSession(storageService.getUserStorageRoot(), request);
+        return ResponseEntity.status(HttpStatus.CREATED).body(status);
+    }
+
+    @GetMapping("/{sessionId}")
+    public ResponseEntity<UploadSessionStatusDTO> getStatus(@PathVariable String sessionId) throws IOException {
+        return ResponseEntity.ok(uploadSessionService.getStatus(storageService.getUserStorageRoot(), sessionId));
+    }
+
+    @PutMapping("/{sessionId}/chunks/{index}")
+    public ResponseEntity<UploadSessionStatusDTO> uploadChunk(@PathVariable String sessionId,
+                                                              @PathVariable int index,
+                                                              HttpServletRequest request) throws IOException {
+        logger.debug("Получение части {} для сессии {}", index, sessionId);
+        Path userRoot = storageService.getUserStorageRoot();
+        UploadSessionStatusDTO status = storageService.runTransfer(userRoot,
+                () -> uploadSessionService.writeChunk(userRoot, sessionId, index, request.getInputStream()));
+        return ResponseEntity.ok(status);
+    }
+
+    @PostMapping("/{sessionId}/commit")
+    public ResponseEntity<String> commit(@PathVariable String sessionId) throws IOException {
+        logger.debug("Завершение сессии загрузки {}", sessionId);
+        Path userRoot = storageService.getUserStorageRoot();
+        String fileId = storageService.runTransfer(userRoot, () -> uploadSessionService.commit(userRoot, sessionId));
+        return ResponseEntity.status(HttpStatus.CREATED).body(fileId);
+    }
+
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<Void> abort(@PathVariable String sessionId) throws IOException {
+        logger.debug("Отмена сессии загрузки {}", sessionId);
+        uploadSessionService.abort(storageService.getUserStorageRoot(), sessionId);
+        return ResponseEntity.noContent().build();
+    }
+
+    @ExceptionHandler(FileNotFoundException.class)
+    public ResponseEntity<Map<String, String>> handleNotFound(FileNotFoundException ex) {
+        logger.warn("Сессия загрузки не найдена: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("message", ex.getMessage()));
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, String>> handleBadRequest(IllegalArgumentException ex) {
+        logger.warn("Некорректный запрос к сессии загрузки: {}", ex.getMessage());
+        return ResponseEntity.badRequest().body(Map.of("message", ex.getMessage()));
+    }
+
+    @ExceptionHandler(IllegalStateException.class)
+    public ResponseEntity<Map<String, String>> handleConflict(IllegalStateException ex) {
+        logger.warn("Сессия загрузки в недопустимом состоянии: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("message", ex.getMessage()));
+    }
+
+    @ExceptionHandler(SecurityException.class)
+    public ResponseEntity<Map<String, String>> handleForbidden(SecurityException ex) {
+        logger.warn("Доступ к сессии загрузки запрещён: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("message", ex.getMessage()));
+    }
+
+    @ExceptionHandler(QuotaExceededException.class)
+    public ResponseEntity<Map<String, String>> handleQuotaExceeded(QuotaExceededException ex) {
+        logger.warn("Загрузка отклонена: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).body(Map.of("message", ex.getMessage()));
+    }
+
+    @ExceptionHandler(TransferRejectedException.class)
+    public ResponseEntity<Map<String, String>> handleTransferRejected(TransferRejectedException ex) {
+        logger.warn("Передача отклонена: {}", ex.getMessage());
+        return ResponseEntity.status(ex.isPerUser() ? HttpStatus.TOO_MANY_REQUESTS : HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, ex.getRetryAfter().toSeconds())))
+                .body(Map.of("message", ex.getMessage()));
+    }
+}
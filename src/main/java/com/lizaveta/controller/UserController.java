@@ -1,6 +1,7 @@
 package com.lizaveta.controller;
 
 import com.lizaveta.model.User;
+import com.lizaveta.service.auth.HashingRejectedException;
 import com.lizaveta.service.auth.UserService;
 import com.lizaveta.service.storage.StorageService;
 import com.lizaveta.model.userDTO.*;
@@ -10,6 +11,7 @@ import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.util.Pair;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -38,7 +40,7 @@ public class UserController {
 
         return userService.getUserByAccessToken(token)
                 .<ResponseEntity<?>>map(user -> {
-                    logger.info("Текущий пользователь получен: {}", user.getEmail());
+                    logger.debug("Текущий пользователь получен: {}", user.getEmail());
                     return ResponseEntity.ok(user);
                 })
                 .orElseGet(() -> {
@@ -49,7 +51,7 @@ public class UserController {
 
     @PostMapping("/register")
     public ResponseEntity<?> register(@RequestBody RegisterRequestDTO request) {
-        logger.info("Регистрация пользователя: username={}, email={}", request.username(), request.email());
+        logger.debug("Регистрация пользователя: username={}, email={}", request.username(), request.email());
         try {
             User user = userService.register(request.username(), request.password(), request.email());
             createUserDirectory(user.getId());
@@ -58,6 +60,9 @@ public class UserController {
         } catch (IllegalArgumentException e) {
             logger.warn("Ошибка при регистрации: {}", e.getMessage());
             return ResponseEntity.badRequest().body(Map.of("message", e.getMessage()));
+        } catch (HashingRejectedException e) {
+            // Перегрузка хэширования отдаётся обработчику ниже: 503 с Retry-After, а не 500
+            throw e;
         } catch (Exception e) {
             logger.error("Внутренняя ошибка при регистрации пользователя", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -67,7 +72,7 @@ public class UserController {
 
     @PostMapping("/login")
     public ResponseEntity<?> login(@RequestBody LoginRequestDTO request, HttpServletResponse response) {
-        logger.info("Попытка входа: email={}", request.email());
+        logger.debug("Попытка входа: email={}", request.email());
         Pair<Optional<AuthResponseDTO>, Optional<User>> result = userService.login(
                 request.email(),
                 request.password(),
@@ -90,16 +95,16 @@ public class UserController {
         }
 
         createUserDirectory(userOpt.get().getId());
-        logger.info("Пользователь '{}' успешно вошёл", userOpt.get().getEmail());
+        logger.debug("Пользователь '{}' успешно вошёл", userOpt.get().getEmail());
         return ResponseEntity.ok(authOpt.get());
     }
 
     @PostMapping("/refresh")
     public ResponseEntity<?> refresh(@RequestBody RefreshRequestDTO request) {
-        logger.info("Запрос обновления access токена");
+        logger.debug("Запрос обновления access токена");
         return userService.refreshAccessToken(request.refreshToken())
                 .<ResponseEntity<?>>map(token -> {
-                    logger.info("Access токен успешно обновлён");
+                    logger.debug("Access токен успешно обновлён");
                     return ResponseEntity.ok(token);
                 })
                 .orElseGet(() -> {
@@ -118,7 +123,7 @@ public class UserController {
 
         boolean success = userService.logoutByAccessToken(accessToken, response);
         if (success) {
-            logger.info("Пользователь успешно вышел из аккаунта");
+            logger.debug("Пользователь успешно вышел из аккаунта");
             return ResponseEntity.ok(Map.of("message", "Вы успешно вышли из аккаунта"));
         } else {
             logger.warn("Ошибка выхода: недействительный токен");
@@ -140,7 +145,7 @@ public class UserController {
         return userService.getUserByAccessToken(token)
                 .map(user -> {
                     try {
-                        logger.info("Обновление пользователя '{}'", user.getEmail());
+                        logger.debug("Обновление пользователя '{}'", user.getEmail());
                         userService.updateUser(user, request.username(), request.password());
                         return ResponseEntity.ok(Map.of("message", "Пользователь обновлён"));
                     } catch (IllegalArgumentException e) {
@@ -202,4 +207,12 @@ public class UserController {
             throw new RuntimeException("Ошибка при удалении пользовательской папки", e);
         }
     }
+
+    @ExceptionHandler(HashingRejectedException.class)
+    public ResponseEntity<Map<String, String>> handleHashingRejected(HashingRejectedException ex) {
+        logger.warn("Запрос отклонён: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, ex.getRetryAfter().toSeconds())))
+                .body(Map.of("message", ex.getMessage()));
+    }
 }
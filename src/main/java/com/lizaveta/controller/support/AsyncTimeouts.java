@@ -0,0 +1,34 @@
+package com.lizaveta.controller.support;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+
+/**
+ * Таймаут асинхронной обработки для одного запроса. StreamingResponseBody, в отличие от WebAsyncTask,
+ * не несёт своего таймаута, поэтому он выставляется перехватчиком перед стартом асинхронной обработки.
+ */
+public final class AsyncTimeouts {
+
+    private static final String INTERCEPTOR_KEY = AsyncTimeouts.class.getName();
+
+    private AsyncTimeouts() {
+    }
+
+    public static void override(HttpServletRequest request, Duration timeout) {
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(INTERCEPTOR_KEY,
+                new CallableProcessingInterceptor() {
+                    @Override
+                    public <T> void beforeConcurrentHandling(NativeWebRequest webRequest, Callable<T> task) {
+                        if (webRequest instanceof AsyncWebRequest asyncWebRequest) {
+                            asyncWebRequest.setTimeout(timeout.toMillis());
+                        }
+                    }
+                });
+    }
+}
@@ -0,0 +1,70 @@
+package com.lizaveta.controller.support;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Условные GET-запросы: If-None-Match и If-Modified-Since (а также If-Match и If-Unmodified-Since)
+ * проверяются до формирования тела. Ответы закрытые и всегда перепроверяются клиентом,
+ * поэтому перезаписанный файл с тем же именем не отдаётся из кэша устаревшим.
+ */
+public final class ConditionalRequests {
+
+    public static final CacheControl REVALIDATE = CacheControl.noCache().cachePrivate();
+
+    private static final int WEAK_TAG_BYTES = 16;
+
+    private ConditionalRequests() {
+    }
+
+    /**
+     * Выставляет Cache-Control и сверяет валидаторы с заголовками запроса.
+     *
+     * @param lastModified время изменения в миллисекундах или отрицательное значение, если его нет
+     * @return true, если ответ уже готов: 304 для актуальной копии клиента или 412 при невыполненном предусловии
+     */
+    public static boolean isNotModified(HttpServletRequest request, HttpServletResponse response,
+                                        String eTag, long lastModified) {
+        response.setHeader(HttpHeaders.CACHE_CONTROL, REVALIDATE.getHeaderValue());
+        ServletWebRequest webRequest = new ServletWebRequest(request, response);
+        return lastModified < 0 ? webRequest.checkNotModified(eTag) : webRequest.checkNotModified(eTag, lastModified);
+    }
+
+    /**
+     * Слабый тег по представлению ответа. Элементы сравниваются по toString, которую у DTO генерирует Lombok,
+     * поэтому тег меняется вместе с любым полем, попадающим в ответ.
+     */
+    public static String weakETag(Iterable<?> items, Object... extra) {
+        MessageDigest digest = newDigest();
+        for (Object item : items) {
+            update(digest, item);
+        }
+        for (Object part : extra) {
+            update(digest, part);
+        }
+        byte[] hash = digest.digest();
+        return "W/\"" + HexFormat.of().formatHex(hash, 0, WEAK_TAG_BYTES) + "\"";
+    }
+
+    private static void update(MessageDigest digest, Object value) {
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        // Разделитель не даёт соседним элементам склеиться в одинаковую последовательность байт
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+}
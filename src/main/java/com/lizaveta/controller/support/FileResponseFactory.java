@@ -0,0 +1,228 @@
+package com.lizaveta.controller.support;
+
+import com.lizaveta.service.storage.blob.BlobStore;
+import com.lizaveta.service.storage.metrics.TransferMetrics;
+import com.lizaveta.service.storage.util.SendfileUtils;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.ResourceRegionHttpMessageConverter;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Optional;
+
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FileResponseFactory {
+
+    private static final ResourceRegionHttpMessageConverter REGION_CONVERTER = new ResourceRegionHttpMessageConverter();
+    private static final Type RESOURCE_REGION_LIST_TYPE =
+            ResolvableType.forClassWithGenerics(List.class, ResourceRegion.class).getType();
+
+    private final TransferMetrics transferMetrics;
+    private final BlobStore blobStore;
+
+    public ResponseEntity<?> download(FileSystemResource resource, String downloadName,
+                                      HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        Path file = resource.getFile().toPath();
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        Optional<String> encoding = blobStore.readEncoding(file);
+        long storedLength = attributes.size();
+        long length = encoding.isPresent() ? blobStore.contentLength(file, storedLength) : storedLength;
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        // Сжатое при хранении содержимое отдаётся как есть, если клиент принимает кодировку: без распаковки
+        // и с меньшим объёмом передачи. Диапазоны считаются по исходному содержимому и всегда отдаются распакованными
+        boolean passthrough = encoding.isPresent() && rangeHeader == null && acceptsEncoding(request, encoding.get());
+
+        // Строгий тег — хэш содержимого, сохранённый при загрузке: перепроверка не читает файл.
+        // У сжатого представления свой тег, потому что его байты другие
+        String eTag = blobStore.readHash(file)
+                .map(hash -> "\"" + hash + (passthrough ? "-" + encoding.get() : "") + "\"")
+                .orElseGet(() -> buildETag(length, lastModified));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + downloadName + "\"");
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setETag(eTag);
+        headers.setLastModified(lastModified);
+        if (encoding.isPresent()) {
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+        if (ConditionalRequests.isNotModified(request, response, eTag, lastModified)) {
+            return null;
+        }
+
+        if (passthrough) {
+            return encodedBody(resource, file, storedLength, encoding.get(), headers, request);
+        }
+        Resource content = encoding.isPresent() ? new DecodedResource(blobStore, file, length) : resource;
+        if (rangeHeader == null || !isIfRangeSatisfied(request, eTag, lastModified)) {
+            return fullBody(content, file, length, encoding.isEmpty(), rangeHeader != null, headers, request);
+        }
+
+        List<ResourceRegion> regions;
+        try {
+            regions = HttpRange.toResourceRegions(HttpRange.parseRanges(rangeHeader), content);
+        } catch (IllegalArgumentException ex) {
+            log.debug("Недопустимый диапазон '{}' для файла длиной {}: {}", rangeHeader, length, ex.getMessage());
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+            return new ResponseEntity<>(headers, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        }
+
+        if (regions.size() > 1) {
+            log.debug("Отдача {} диапазонов файла как multipart/byteranges", regions.size());
+            writeRegions(regions, RESOURCE_REGION_LIST_TYPE, headers, response);
+            transferMetrics.recordDownload(TransferMetrics.MULTIRANGE, regions.stream().mapToLong(ResourceRegion::getCount).sum());
+            return null;
+        }
+
+        ResourceRegion region = regions.get(0);
+        long start = region.getPosition();
+        long end = start + region.getCount();
+        transferMetrics.recordDownload(TransferMetrics.RANGE, region.getCount());
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        if (encoding.isEmpty() && SendfileUtils.trySendfile(request, file, start, end)) {
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + length);
+            headers.setContentLength(region.getCount());
+            return new ResponseEntity<>(headers, HttpStatus.PARTIAL_CONTENT);
+        }
+        writeRegions(region, ResourceRegion.class, headers, response);
+        return null;
+    }
+
+    // Конвертер выбирается по объявленному типу тела, а у ResponseEntity<?> он стёрт,
+    // поэтому диапазоны пишутся напрямую, и контроллер получает null как признак готового ответа
+    private void writeRegions(Object regions, Type type, HttpHeaders headers, HttpServletResponse response)
+            throws IOException {
+        ServletServerHttpResponse output = new ServletServerHttpResponse(response);
+        output.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+        output.getHeaders().putAll(headers);
+        REGION_CONVERTER.write(regions, type, null, output);
+    }
+
+    /** @param raw содержимое лежит на диске как есть, и его можно отдать через sendfile */
+    private ResponseEntity<?> fullBody(Resource content, Path file, long length, boolean raw, boolean rangeIgnored,
+                                       HttpHeaders headers, HttpServletRequest request) throws IOException {
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.setContentLength(length);
+        transferMetrics.recordDownload(TransferMetrics.FULL, length);
+        if (raw && SendfileUtils.trySendfile(request, file, 0, length)) {
+            return new ResponseEntity<>(headers, HttpStatus.OK);
+        }
+        if (rangeIgnored || !raw) {
+            // Spring сам нарезает Resource по заголовку Range, поэтому при несовпавшем If-Range отдаём поток
+            return new ResponseEntity<>(new InputStreamResource(content.getInputStream()), headers, HttpStatus.OK);
+        }
+        return new ResponseEntity<>(content, headers, HttpStatus.OK);
+    }
+
+    private ResponseEntity<?> encodedBody(FileSystemResource resource, Path file, long storedLength, String encoding,
+                                          HttpHeaders headers, HttpServletRequest request) {
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.set(HttpHeaders.CONTENT_ENCODING, encoding);
+        headers.setContentLength(storedLength);
+        transferMetrics.recordDownload(TransferMetrics.FULL, storedLength);
+        if (SendfileUtils.trySendfile(request, file, 0, storedLength)) {
+            return new ResponseEntity<>(headers, HttpStatus.OK);
+        }
+        return new ResponseEntity<>(resource, headers, HttpStatus.OK);
+    }
+
+    private static boolean acceptsEncoding(HttpServletRequest request, String encoding) {
+        Enumeration<String> values = request.getHeaders(HttpHeaders.ACCEPT_ENCODING);
+        while (values != null && values.hasMoreElements()) {
+            for (String item : values.nextElement().split(",")) {
+                String[] parts = item.trim().split(";");
+                String coding = parts[0].trim();
+                if (!coding.equalsIgnoreCase(encoding) && !coding.equals("*")) {
+                    continue;
+                }
+                // q=0 означает явный отказ от кодировки
+                return Arrays.stream(parts).skip(1).map(String::trim)
+                        .noneMatch(parameter -> parameter.matches("(?i)q\\s*=\\s*0(\\.0{0,3})?"));
+            }
+        }
+        return false;
+    }
+
+    private boolean isIfRangeSatisfied(HttpServletRequest request, String eTag, long lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range допускает только строгое сравнение, слабый тег никогда не совпадает
+            return ifRange.equals(eTag);
+        }
+        try {
+            long ifRangeDate = request.getDateHeader(HttpHeaders.IF_RANGE);
+            return ifRangeDate / 1000 == lastModified / 1000;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    private String buildETag(long length, long lastModified) {
+        return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    }
+
+    /** Распакованное содержимое сжатого файла с известной длиной, чтобы по нему работали диапазоны. */
+    private static class DecodedResource extends AbstractResource {
+
+        private final BlobStore blobStore;
+        private final Path file;
+        private final long length;
+
+        DecodedResource(BlobStore blobStore, Path file, long length) {
+            this.blobStore = blobStore;
+            this.file = file;
+            this.length = length;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return blobStore.openContent(file);
+        }
+
+        @Override
+        public long contentLength() {
+            return length;
+        }
+
+        @Override
+        public String getFilename() {
+            return file.getFileName().toString();
+        }
+
+        @Override
+        public String getDescription() {
+            return "распакованное содержимое [" + file + "]";
+        }
+    }
+}
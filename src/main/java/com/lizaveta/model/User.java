@@ -2,6 +2,7 @@ package com.lizaveta.model;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.Instant;
@@ -10,15 +11,20 @@ import java.time.Instant;
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-@Builder
+@Builder(toBuilder = true)
 public class User {
     @Id
     private String id;
     private String name;
+    @Indexed(unique = true)
     private String email;
     private String passwordHash;
     private String salt;
+    @Indexed(unique = true, sparse = true)
     private String accessToken;
+    @Indexed(unique = true, sparse = true)
     private String refreshToken;
+    @Indexed(sparse = true)
+    private Instant tokenExpiresAt;
     private Instant timeLastLogin;
 }
\ No newline at end of file
@@ -0,0 +1,26 @@
+package com.lizaveta.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/**
+ * Занятое пользователем место. Хранится отдельно от {@link User}, потому что документ пользователя
+ * перезаписывается целиком при входе и обновлении токенов, а счётчики меняются атомарным $inc.
+ */
+@Document(collection = "user_usage")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UserUsage {
+    @Id
+    private String userId;
+    private long bytes;
+    private long files;
+    // Индивидуальная квота в байтах; null — квота по умолчанию
+    private Long quotaBytes;
+    private Instant calculatedAt;
+}
@@ -0,0 +1,3 @@
+package com.lizaveta.model.deltaDTO;
+
+public record BlockSignatureDTO(int index, long weak, String strong) {}
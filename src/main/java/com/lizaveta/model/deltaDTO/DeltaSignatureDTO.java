@@ -0,0 +1,5 @@
+package com.lizaveta.model.deltaDTO;
+
+import java.util.List;
+
+public record DeltaSignatureDTO(String fileId, long size, int blockSize, List<BlockSignatureDTO> blocks) {}
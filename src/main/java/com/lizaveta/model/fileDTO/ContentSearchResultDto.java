@@ -0,0 +1,14 @@
+package com.lizaveta.model.fileDTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ContentSearchResultDto {
+    private String id;
+    private String name;
+    private float score;
+}
@@ -0,0 +1,17 @@
+package com.lizaveta.model.fileDTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DirectoryCacheStatsDto {
+    private long hits;
+    private long misses;
+    private double hitRate;
+    private long evictions;
+    private long cachedDirectories;
+    private int watchedDirectories;
+}
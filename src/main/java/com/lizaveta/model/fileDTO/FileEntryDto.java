@@ -0,0 +1,19 @@
+package com.lizaveta.model.fileDTO;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class FileEntryDto {
+    private String id;
+    private String name;
+    private FileType type;
+    private Long size;
+    private Long modified;
+    private String mimeType;
+}
@@ -0,0 +1,16 @@
+package com.lizaveta.model.fileDTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FileListPageDto {
+    private List<FileEntryDto> items;
+    private String nextCursor;
+    private long total;
+}
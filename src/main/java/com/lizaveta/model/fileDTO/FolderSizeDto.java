@@ -0,0 +1,18 @@
+package com.lizaveta.model.fileDTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FolderSizeDto {
+    private String id;
+    private long bytes;
+    private long files;
+    // Крупнейшие вложенные папки и файлы, по убыванию размера
+    private List<FolderSizeEntryDto> children;
+}
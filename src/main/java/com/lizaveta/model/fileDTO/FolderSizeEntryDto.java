@@ -0,0 +1,16 @@
+package com.lizaveta.model.fileDTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FolderSizeEntryDto {
+    private String id;
+    private String name;
+    private FileType type;
+    private long bytes;
+    private long files;
+}
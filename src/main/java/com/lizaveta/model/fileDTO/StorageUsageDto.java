@@ -0,0 +1,15 @@
+package com.lizaveta.model.fileDTO;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StorageUsageDto {
+    private long bytes;
+    private long files;
+    // null — квота не ограничена
+    private Long quotaBytes;
+}
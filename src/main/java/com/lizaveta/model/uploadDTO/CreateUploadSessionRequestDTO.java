@@ -0,0 +1,3 @@
+package com.lizaveta.model.uploadDTO;
+
+public record CreateUploadSessionRequestDTO(String fileName, String folderId, long size, Long chunkSize) {}
@@ -0,0 +1,4 @@
+package com.lizaveta.model.uploadDTO;
+
+public record FailedFileDTO(String relativePath,
+                            String message) {}
@@ -0,0 +1,7 @@
+package com.lizaveta.model.uploadDTO;
+
+import java.util.List;
+
+public record FolderUploadResultDTO(String folderId,
+                                    int storedFiles,
+                                    List<FailedFileDTO> failedFiles) {}
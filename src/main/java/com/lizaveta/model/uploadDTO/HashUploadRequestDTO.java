@@ -0,0 +1,3 @@
+package com.lizaveta.model.uploadDTO;
+
+public record HashUploadRequestDTO(String sha256, String fileName, String folderId) {}
@@ -0,0 +1,6 @@
+package com.lizaveta.model.uploadDTO;
+
+import java.util.List;
+
+public record StreamUploadResultDTO(List<String> storedFiles,
+                                    List<FailedFileDTO> failedFiles) {}
@@ -0,0 +1,6 @@
+package com.lizaveta.model.uploadDTO;
+
+public record TransferStatsDTO(int active,
+                               int queued,
+                               int users,
+                               int maxConcurrent) {}
@@ -0,0 +1,13 @@
+package com.lizaveta.model.uploadDTO;
+
+import java.util.List;
+
+public record UploadSessionStatusDTO(String sessionId,
+                                     String fileName,
+                                     String folderId,
+                                     long size,
+                                     long chunkSize,
+                                     int chunkCount,
+                                     long receivedBytes,
+                                     List<Integer> receivedChunks,
+                                     List<Integer> missingChunks) {}
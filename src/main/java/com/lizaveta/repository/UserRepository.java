@@ -2,7 +2,10 @@ package com.lizaveta.repository;
 
 import com.lizaveta.model.User;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.Update;
 
+import java.time.Instant;
 import java.util.Optional;
 
 public interface UserRepository extends MongoRepository<User, String> {
@@ -10,4 +13,20 @@ public interface UserRepository extends MongoRepository<User, String> {
     Optional<User> findByAccessToken(String token);
     Optional<User> findByRefreshToken(String token);
     boolean existsByEmail(String email);
+
+    @Query("{ 'tokenExpiresAt' : { '$lt' : ?0 } }")
+    @Update("{ '$unset' : { 'accessToken' : 1, 'refreshToken' : 1, 'tokenExpiresAt' : 1 } }")
+    long clearTokensExpiredBefore(Instant now);
+
+    @Query("{ '_id' : ?0, 'accessToken' : ?1 }")
+    @Update("{ '$unset' : { 'accessToken' : 1, 'refreshToken' : 1, 'tokenExpiresAt' : 1 } }")
+    long clearTokens(String id, String accessToken);
+
+    @Query("{ '_id' : ?0 }")
+    @Update("{ '$set' : { 'name' : ?1 } }")
+    long updateName(String id, String name);
+
+    @Query("{ '_id' : ?0 }")
+    @Update("{ '$set' : { 'salt' : ?1, 'passwordHash' : ?2 } }")
+    long updatePassword(String id, String salt, String passwordHash);
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+package com.lizaveta.service.auth;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.lizaveta.config.AuthProperties;
+import com.lizaveta.model.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Кэш соответствия access токена пользователю. Ограничен по размеру и времени жизни записи,
+ * поэтому даже пропущенная инвалидация не оставит токен действующим дольше TTL.
+ * Отсутствующие токены не кэшируются. Сущность изменяемая, поэтому кэш хранит свою копию
+ * и каждому запросу отдаёт отдельную: изменения в одном запросе не видны другим.
+ */
+@Slf4j
+@Component
+public class AccessTokenCache implements MeterBinder {
+
+    private final Cache<String, User> cache;
+
+    public AccessTokenCache(AuthProperties authProperties) {
+        AuthProperties.TokenCache properties = authProperties.getTokenCache();
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfterWrite(properties.getTtl())
+                .recordStats()
+                .build();
+    }
+
+    public Optional<User> get(String accessToken, Function<String, Optional<User>> loader) {
+        User cached = cache.getIfPresent(accessToken);
+        if (cached != null) {
+            return Optional.of(cached.toBuilder().build());
+        }
+        Optional<User> loaded = loader.apply(accessToken);
+        loaded.ifPresent(user -> cache.put(accessToken, user.toBuilder().build()));
+        return loaded;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "access-tokens");
+    }
+
+    public void invalidate(String accessToken) {
+        if (accessToken != null) {
+            cache.invalidate(accessToken);
+        }
+    }
+
+    public void invalidateUser(String userId) {
+        cache.asMap().values().removeIf(user -> userId.equals(user.getId()));
+        log.debug("Токены пользователя id={} удалены из кэша", userId);
+    }
+}
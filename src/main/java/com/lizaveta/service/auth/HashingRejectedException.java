@@ -0,0 +1,17 @@
+package com.lizaveta.service.auth;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/** Хэширование пароля не принято: очередь пула переполнена или результат не получен за отведённое время. */
+@Getter
+public class HashingRejectedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public HashingRejectedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+}
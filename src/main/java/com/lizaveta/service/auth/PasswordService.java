@@ -1,42 +1,173 @@
 package com.lizaveta.service.auth;
 
+import com.lizaveta.config.AuthProperties;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
 import org.springframework.stereotype.Service;
 import lombok.extern.slf4j.Slf4j;
 
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.time.Duration;
 import java.util.Base64;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Хэширование паролей через PBKDF2-HMAC-SHA256 на отдельном пуле по числу ядер с ограниченной очередью:
+ * всплеск входов занимает только этот пул, а не потоки запросов, и при переполнении сразу получает отказ.
+ * Хэш хранится как {@code pbkdf2-sha256$<итерации>$<хэш>}; хэши без префикса — прежний SHA-256 от пароля с солью,
+ * они проверяются по-старому и пересчитываются при следующем успешном входе.
+ */
 @Service
 @Slf4j
-public class PasswordService {
+public class PasswordService implements MeterBinder {
+
+    private static final String SCHEME = "pbkdf2-sha256";
+    private static final int HASH_BITS = 256;
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(1);
+
+    // Экземпляры не потокобезопасны, а поиск провайдера при каждом вызове заметен под нагрузкой
+    private static final ThreadLocal<SecretKeyFactory> KDF = ThreadLocal.withInitial(() -> instance(
+            () -> SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256")));
+    private static final ThreadLocal<MessageDigest> LEGACY_DIGEST = ThreadLocal.withInitial(() -> instance(
+            () -> MessageDigest.getInstance("SHA-256")));
+
+    private final SecureRandom random = new SecureRandom();
+    private final AuthProperties.Hashing properties;
+    private final ThreadPoolExecutor hasher;
+    private final LongAdder rejected = new LongAdder();
+
+    public PasswordService(AuthProperties authProperties) {
+        this.properties = authProperties.getHashing();
+        AtomicInteger counter = new AtomicInteger();
+        this.hasher = new ThreadPoolExecutor(properties.getThreads(), properties.getThreads(),
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(properties.getQueueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "PasswordHasher-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.hasher.prestartAllCoreThreads();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new ExecutorServiceMetrics(hasher, "password-hasher", Tags.empty()).bindTo(registry);
+        FunctionCounter.builder("offchance.auth.hashing.rejected", rejected, LongAdder::sum)
+                .description("Хэширования паролей, отклонённые из-за перегрузки")
+                .register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hasher.shutdownNow();
+    }
 
     public String generateSalt() {
         byte[] salt = new byte[16];
-        new SecureRandom().nextBytes(salt);
+        random.nextBytes(salt);
         String encodedSalt = Base64.getEncoder().encodeToString(salt);
         log.debug("Сгенерирована новая соль: {}", encodedSalt);
         return encodedSalt;
     }
 
     public String hashPassword(String password, String salt) {
-        try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            String salted = password + salt;
-            byte[] hash = digest.digest(salted.getBytes());
-            String encodedHash = Base64.getEncoder().encodeToString(hash);
-            log.debug("Хэширован пароль: {}", encodedHash);
-            return encodedHash;
-        } catch (Exception e) {
-            log.error("Ошибка хэширования пароля", e);
-            throw new RuntimeException("Ошибка хэширования", e);
-        }
+        int iterations = properties.getIterations();
+        byte[] hash = deriveOnPool(password, salt, iterations);
+        log.debug("Хэширован пароль ({} итераций)", iterations);
+        return SCHEME + "$" + iterations + "$" + Base64.getEncoder().encodeToString(hash);
     }
 
     public boolean verifyPassword(String rawPassword, String salt, String expectedHash) {
-        String actualHash = hashPassword(rawPassword, salt);
-        boolean match = expectedHash.equals(actualHash);
+        if (rawPassword == null) {
+            return false;
+        }
+        byte[] expected;
+        byte[] actual;
+        String[] parts = expectedHash.split("\\$");
+        if (parts.length == 3 && SCHEME.equals(parts[0])) {
+            expected = Base64.getDecoder().decode(parts[2]);
+            actual = deriveOnPool(rawPassword, salt, Integer.parseInt(parts[1]));
+        } else {
+            expected = expectedHash.getBytes(StandardCharsets.US_ASCII);
+            actual = legacyHash(rawPassword, salt).getBytes(StandardCharsets.US_ASCII);
+        }
+        boolean match = MessageDigest.isEqual(expected, actual);
         log.debug("Проверка пароля: совпадение = {}", match);
         return match;
     }
+
+    /** Хэш сохранён прежним алгоритмом или с меньшим числом итераций, чем задано сейчас. */
+    public boolean needsRehash(String storedHash) {
+        String[] parts = storedHash.split("\\$");
+        return parts.length != 3 || !SCHEME.equals(parts[0]) || Integer.parseInt(parts[1]) < properties.getIterations();
+    }
+
+    // Вызывающий поток ждёт результат не дольше timeout; задача, не начатая к этому времени, снимается с очереди
+    private byte[] deriveOnPool(String password, String salt, int iterations) {
+        Future<byte[]> future;
+        try {
+            future = hasher.submit(() -> derive(password, salt, iterations));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            log.warn("Хэширование пароля отклонено: очередь заполнена ({} задач)", hasher.getQueue().size());
+            throw new HashingRejectedException("Сервис входа перегружен, повторите попытку позже", RETRY_AFTER);
+        }
+        try {
+            return future.get(properties.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            rejected.increment();
+            log.warn("Хэширование пароля не уложилось в {}", properties.getTimeout());
+            throw new HashingRejectedException("Сервис входа перегружен, повторите попытку позже", RETRY_AFTER);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new HashingRejectedException("Хэширование пароля прервано", RETRY_AFTER);
+        } catch (ExecutionException e) {
+            log.error("Ошибка хэширования пароля", e.getCause());
+            throw new RuntimeException("Ошибка хэширования", e.getCause());
+        }
+    }
+
+    private static byte[] derive(String password, String salt, int iterations) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), Base64.getDecoder().decode(salt), iterations, HASH_BITS);
+        try {
+            return KDF.get().generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static String legacyHash(String password, String salt) {
+        MessageDigest digest = LEGACY_DIGEST.get();
+        digest.reset();
+        return Base64.getEncoder().encodeToString(digest.digest((password + salt).getBytes()));
+    }
+
+    private static <T> T instance(Algorithm<T> algorithm) {
+        try {
+            return algorithm.get();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Алгоритм недоступен", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Algorithm<T> {
+        T get() throws NoSuchAlgorithmException;
+    }
 }
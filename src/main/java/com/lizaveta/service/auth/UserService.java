@@ -1,18 +1,23 @@
 package com.lizaveta.service.auth;
 
+import com.lizaveta.config.AuthProperties;
 import com.lizaveta.model.User;
 import com.lizaveta.model.userDTO.AuthResponseDTO;
 import com.lizaveta.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.util.Pair;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 @Service
 @RequiredArgsConstructor
@@ -22,16 +27,19 @@ public class UserService {
     private final UserRepository userRepository;
     private final TokenService tokenService;
     private final PasswordService passwordService;
+    private final AccessTokenCache accessTokenCache;
+    private final AuthProperties authProperties;
+    private final MeterRegistry meterRegistry;
 
     public User register(String login, String rawPassword, String email) {
-        log.info("Попытка регистрации нового пользователя: email={}, login={}", email, login);
+        log.debug("Попытка регистрации нового пользователя: email={}, login={}", email, login);
 
         if (rawPassword == null || rawPassword.isBlank() || email == null || email.isBlank()) {
             log.warn("Ошибка регистрации: отсутствуют обязательные поля.");
             throw new IllegalArgumentException("Все поля обязательны для заполнения.");
         }
 
-        if (userRepository.existsByEmail(email)) {
+        if (timedLookup("exists-by-email", () -> userRepository.existsByEmail(email))) {
             log.warn("Регистрация отклонена: пользователь с email {} уже существует.", email);
             throw new IllegalArgumentException("Пользователь с таким email уже существует.");
         }
@@ -56,8 +64,8 @@ public class UserService {
                                                                  String rawPassword,
                                                                  boolean rememberMe,
                                                                  HttpServletResponse response) {
-        log.info("Попытка входа с email={}", email);
-        Optional<User> userOpt = userRepository.findByEmail(email);
+        log.debug("Попытка входа с email={}", email);
+        Optional<User> userOpt = timedLookup("by-email", () -> userRepository.findByEmail(email));
 
         if (userOpt.isEmpty()) {
             log.warn("Вход неудачен: пользователь с email {} не найден", email);
@@ -71,11 +79,21 @@ public class UserService {
             return Pair.of(Optional.empty(), Optional.empty());
         }
 
+        // Пароль известен только при входе, поэтому устаревший хэш обновляется здесь и сохраняется вместе с токенами
+        if (passwordService.needsRehash(user.getPasswordHash())) {
+            String newSalt = passwordService.generateSalt();
+            user.setPasswordHash(passwordService.hashPassword(rawPassword, newSalt));
+            user.setSalt(newSalt);
+            log.info("Хэш пароля пользователя id={} пересчитан по текущим параметрам", user.getId());
+        }
+
         String accessToken = tokenService.generateToken();
         String refreshToken = tokenService.generateToken();
 
+        accessTokenCache.invalidate(user.getAccessToken());
         user.setAccessToken(accessToken);
         user.setRefreshToken(refreshToken);
+        user.setTokenExpiresAt(Instant.now().plus(authProperties.getTokenTtl()));
         user.setTimeLastLogin(Instant.now());
         userRepository.save(user);
 
@@ -85,32 +103,66 @@ public class UserService {
                 rememberMe
         );
 
-        log.info("Вход успешен: userId={}, email={}", user.getId(), email);
+        log.debug("Вход успешен: userId={}, email={}", user.getId(), email);
         AuthResponseDTO authResponse = new AuthResponseDTO(accessToken, refreshToken);
         return Pair.of(Optional.of(authResponse), Optional.of(user));
     }
 
     public Optional<AuthResponseDTO> refreshAccessToken(String refreshToken) {
-        log.info("Попытка обновления access token по refresh токену");
-        return userRepository.findByRefreshToken(refreshToken)
+        log.debug("Попытка обновления access token по refresh токену");
+        if (refreshToken == null || refreshToken.isBlank()) {
+            return Optional.empty();
+        }
+        return timedLookup("by-refresh-token", () -> userRepository.findByRefreshToken(refreshToken))
+                .filter(this::hasActiveTokens)
                 .map(user -> {
                     String newAccessToken = tokenService.generateToken();
                     String newRefreshToken = tokenService.generateToken();
+                    accessTokenCache.invalidate(user.getAccessToken());
                     user.setAccessToken(newAccessToken);
                     user.setRefreshToken(newRefreshToken);
+                    user.setTokenExpiresAt(Instant.now().plus(authProperties.getTokenTtl()));
                     userRepository.save(user);
-                    log.info("Токены обновлены для пользователя id={}", user.getId());
+                    log.debug("Токены обновлены для пользователя id={}", user.getId());
                     return new AuthResponseDTO(newAccessToken, newRefreshToken);
                 });
     }
 
     public Optional<User> getUserByAccessToken(String accessToken) {
         log.debug("Получение пользователя по access токену");
-        return userRepository.findByAccessToken(accessToken);
+        if (accessToken == null || accessToken.isBlank()) {
+            return Optional.empty();
+        }
+        return accessTokenCache.get(accessToken,
+                token -> timedLookup("by-access-token", () -> userRepository.findByAccessToken(token)))
+                .filter(this::hasActiveTokens);
+    }
+
+    @Scheduled(fixedDelayString = "PT1H", initialDelayString = "PT10M")
+    public void clearExpiredTokens() {
+        long cleared = userRepository.clearTokensExpiredBefore(Instant.now());
+        if (cleared > 0) {
+            log.info("Удалены просроченные токены у {} пользователей", cleared);
+        }
+    }
+
+    // Время поиска пользователя в Mongo; попадания в кэш токенов сюда не входят
+    private <T> T timedLookup(String query, Supplier<T> lookup) {
+        return Timer.builder("offchance.auth.user.lookup")
+                .description("Поиск пользователя в базе")
+                .tag("query", query)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(lookup);
+    }
+
+    private boolean hasActiveTokens(User user) {
+        // У пользователей, вошедших до появления срока действия, он не задан
+        return user.getTokenExpiresAt() == null || user.getTokenExpiresAt().isAfter(Instant.now());
     }
 
     public boolean logoutByAccessToken(String accessToken, HttpServletResponse response) {
-        log.info("Попытка выхода по access токену");
+        log.debug("Попытка выхода по access токену");
         Optional<User> userOpt = getUserByAccessToken(accessToken);
 
         if (userOpt.isEmpty()) {
@@ -118,24 +170,26 @@ public class UserService {
             return false;
         }
 
+        // Пользователь мог прийти из кэша и устареть, поэтому сбрасываются только токены и только если они ещё текущие
         User user = userOpt.get();
-        user.setAccessToken(null);
-        user.setRefreshToken(null);
-        userRepository.save(user);
+        accessTokenCache.invalidate(accessToken);
+        userRepository.clearTokens(user.getId(), accessToken);
 
         tokenService.deleteCookies(response);
-        log.info("Пользователь успешно вышел: id={}", user.getId());
+        log.debug("Пользователь успешно вышел: id={}", user.getId());
 
         return true;
     }
 
+    // Пользователь мог прийти из кэша токенов, поэтому документ не сохраняется целиком:
+    // меняются только нужные поля, чтобы не затереть токены, обновлённые с другого устройства
     public void updateUser(User user, String newUsername, String newPassword) {
-        log.info("Обновление данных пользователя id={}", user.getId());
+        log.debug("Обновление данных пользователя id={}", user.getId());
         boolean changed = false;
 
         if (newUsername != null && !newUsername.isBlank() && !newUsername.equals(user.getName())) {
             log.debug("Изменение имени пользователя: {} → {}", user.getName(), newUsername);
-            user.setName(newUsername);
+            userRepository.updateName(user.getId(), newUsername);
             changed = true;
         }
 
@@ -143,22 +197,22 @@ public class UserService {
             log.debug("Изменение пароля пользователя id={}", user.getId());
             String newSalt = passwordService.generateSalt();
             String newHash = passwordService.hashPassword(newPassword, newSalt);
-            user.setSalt(newSalt);
-            user.setPasswordHash(newHash);
+            userRepository.updatePassword(user.getId(), newSalt, newHash);
             changed = true;
         }
 
         if (changed) {
-            userRepository.save(user);
-            log.info("Пользователь обновлён: id={}", user.getId());
+            accessTokenCache.invalidateUser(user.getId());
+            log.debug("Пользователь обновлён: id={}", user.getId());
         } else {
-            log.info("Данные пользователя не изменены: id={}", user.getId());
+            log.debug("Данные пользователя не изменены: id={}", user.getId());
         }
     }
 
     public void deleteAccount(String userId) {
         log.info("Удаление аккаунта пользователя: id={}", userId);
         userRepository.deleteById(userId);
+        accessTokenCache.invalidateUser(userId);
     }
 
     public String extractTokenFromCookies(HttpServletRequest request) {
@@ -1,6 +1,12 @@
 package com.lizaveta.service.storage;
 
+import com.lizaveta.service.storage.blob.BlobStore;
+import com.lizaveta.service.storage.event.StorageChangeEvent;
+import com.lizaveta.service.storage.io.PathLocks;
+import com.lizaveta.service.storage.usage.StorageUsageService;
 import com.lizaveta.service.storage.util.FileUtils;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
@@ -11,43 +17,119 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.concurrent.CompletableFuture;
 
 @Service
 @RequiredArgsConstructor
 public class FileService {
 
+    private final BlobStore blobStore;
+    private final StorageUsageService storageUsageService;
+    private final PathLocks pathLocks;
+    private final ApplicationEventPublisher eventPublisher;
+
     public String uploadFile(Path userRoot, MultipartFile file, String folderId) throws IOException {
-        Path folderPath = FileUtils.resolveSecurePath(userRoot, folderId);
-        FileUtils.createDirectoriesIfNotExist(folderPath);
+        Path targetPath = resolveUploadTarget(userRoot, Objects.requireNonNull(file.getOriginalFilename()), folderId);
 
-        String fileName = FileUtils.generateTimestampedFileName(Objects.requireNonNull(file.getOriginalFilename()));
-        Path targetPath = folderPath.resolve(fileName);
+        // Место резервируется до записи, при ошибке резерв возвращается
+        // Файл с тем же именем перезаписывается; блокировка пути не даёт параллельным записям учесть его дважды
+        try (PathLocks.Handle ignored = pathLocks.lock(targetPath)) {
+            StorageUsageService.Reservation reservation = storageUsageService.reserveWrite(userRoot, targetPath, file.getSize());
+            try (InputStream inputStream = file.getInputStream()) {
+                blobStore.store(userRoot, inputStream, targetPath);
+            } catch (IOException | RuntimeException e) {
+                storageUsageService.release(reservation);
+                throw e;
+            }
+        }
+        eventPublisher.publishEvent(StorageChangeEvent.created(targetPath));
+        return userRoot.relativize(targetPath).toString();
+    }
 
-        try (InputStream inputStream = file.getInputStream()) {
-            Files.copy(inputStream, targetPath, StandardCopyOption.REPLACE_EXISTING);
+    /**
+     * Переносит файл в хранилище, место под который вызывающий уже зарезервировал как под новый файл.
+     * При ошибке резерв остаётся за вызывающим.
+     */
+    public String moveIntoStorage(Path userRoot, Path source, String originalFileName, String folderId) throws IOException {
+        Path targetPath = resolveUploadTarget(userRoot, originalFileName, folderId);
+        try (PathLocks.Handle ignored = pathLocks.lock(targetPath)) {
+            // Перезаписанный файл с тем же именем возвращает своё место и место в счётчике файлов
+            long replaced = Files.isRegularFile(targetPath, LinkOption.NOFOLLOW_LINKS) ? blobStore.contentLength(targetPath) : -1;
+            blobStore.adopt(userRoot, source, targetPath);
+            if (replaced >= 0) {
+                storageUsageService.release(userRoot, replaced, 1);
+            }
         }
+        eventPublisher.publishEvent(StorageChangeEvent.created(targetPath));
         return userRoot.relativize(targetPath).toString();
     }
 
-    public byte[] downloadFileToByteArray(Path userRoot, String fileId) {
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            Path filePath = FileUtils.resolveSecurePath(userRoot, fileId);
-            if (!Files.exists(filePath) || Files.isDirectory(filePath)) {
-                throw new FileNotFoundException("Файл не найден: " + fileId);
+    public void storeStaged(Path userRoot, Path staged, String sha256, Path targetPath) throws IOException {
+        try (PathLocks.Handle ignored = pathLocks.lock(targetPath)) {
+            StorageUsageService.Reservation reservation = storageUsageService.reserveWrite(userRoot, targetPath, Files.size(staged));
+            try {
+                blobStore.commitStaged(userRoot, staged, sha256, targetPath);
+            } catch (IOException | RuntimeException e) {
+                storageUsageService.release(reservation);
+                throw e;
+            }
+        }
+        eventPublisher.publishEvent(StorageChangeEvent.created(targetPath));
+    }
+
+    public Optional<String> linkByHash(Path userRoot, String sha256, String originalFileName, String folderId) throws IOException {
+        Path targetPath = resolveUploadTarget(userRoot, originalFileName, folderId);
+        String hash = sha256.toLowerCase();
+        try (PathLocks.Handle ignored = pathLocks.lock(targetPath)) {
+            OptionalLong size = blobStore.linkableContentLength(userRoot, hash);
+            if (size.isEmpty()) {
+                return Optional.empty();
+            }
+            // Место резервируется до ссылки: при отказе по квоте прежний файл с тем же именем остаётся на месте
+            StorageUsageService.Reservation reservation = storageUsageService.reserveWrite(userRoot, targetPath, size.getAsLong());
+            try {
+                if (!blobStore.linkExisting(userRoot, hash, targetPath)) {
+                    storageUsageService.release(reservation);
+                    return Optional.empty();
+                }
+            } catch (IOException | RuntimeException e) {
+                storageUsageService.release(reservation);
+                throw e;
             }
-            Files.copy(filePath, outputStream);
-            return outputStream.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
+        eventPublisher.publishEvent(StorageChangeEvent.created(targetPath));
+        return Optional.of(userRoot.relativize(targetPath).toString());
+    }
+
+    public Path resolveUploadTarget(Path userRoot, String originalFileName, String folderId) throws IOException {
+        Path folderPath = FileUtils.resolveSecurePath(userRoot, folderId);
+        FileUtils.createDirectoriesIfNotExist(folderPath);
+
+        String fileName = FileUtils.generateTimestampedFileName(Path.of(originalFileName).getFileName().toString());
+        return FileUtils.resolveSecurePath(folderPath, fileName);
+    }
+
+    public FileSystemResource downloadFile(Path userRoot, String fileId) throws FileNotFoundException {
+        Path filePath = FileUtils.resolveSecurePath(userRoot, fileId);
+        if (!Files.isRegularFile(filePath)) {
+            throw new FileNotFoundException("Файл не найден: " + fileId);
+        }
+        return new FileSystemResource(filePath);
     }
 
     public void deleteFile(Path userRoot, String filePath) throws IOException {
         Path path = FileUtils.resolveSecurePath(userRoot, filePath);
-        if (!Files.exists(path) || Files.isDirectory(path)) {
-            throw new FileNotFoundException("Файл не найден: " + filePath);
+        // Та же блокировка пути, что у записи: иначе удаление посреди перезаписи собьёт счётчики
+        try (PathLocks.Handle ignored = pathLocks.lock(path)) {
+            if (!Files.exists(path) || Files.isDirectory(path)) {
+                throw new FileNotFoundException("Файл не найден: " + filePath);
+            }
+            long size = blobStore.contentLength(path);
+            blobStore.delete(path);
+            storageUsageService.release(userRoot, size, 1);
         }
-        Files.delete(path);
+        eventPublisher.publishEvent(StorageChangeEvent.deleted(path));
     }
 }
\ No newline at end of file
@@ -1,89 +1,222 @@
 package com.lizaveta.service.storage;
 
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.model.uploadDTO.FailedFileDTO;
+import com.lizaveta.model.uploadDTO.FolderUploadResultDTO;
+import com.lizaveta.service.storage.archive.ParallelZipWriter;
+import com.lizaveta.service.storage.blob.BlobStore;
+import com.lizaveta.service.storage.event.StorageChangeEvent;
+import com.lizaveta.service.storage.io.DiskConcurrencyLimiter;
+import com.lizaveta.service.storage.metrics.TransferMetrics;
+import com.lizaveta.service.storage.upload.FolderIngestor;
+import com.lizaveta.service.storage.usage.StorageUsageService;
 import com.lizaveta.service.storage.util.FileUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.util.List;
-import java.util.Objects;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+@Slf4j
 @Service
+@RequiredArgsConstructor
 public class FolderService {
 
-    public void deleteFolder(Path folderPath) throws IOException {
-        FileUtils.deleteRecursively(folderPath);
+    private static final int ZIP_BUFFER_SIZE = 64 * 1024;
+    private static final int FINGERPRINT_BYTES = 16;
+
+    /**
+     * Состояние папки для условной отдачи архива: отпечаток путей, размеров и времён изменения файлов
+     * и самое позднее время изменения, включая папки — оно сдвигается и при удалении или переименовании файла.
+     */
+    public record ArchiveVersion(String fingerprint, long lastModified) {
+    }
+
+    private final StorageProperties storageProperties;
+    private final ParallelZipWriter parallelZipWriter;
+    private final BlobStore blobStore;
+    private final StorageUsageService storageUsageService;
+    private final FolderIngestor folderIngestor;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransferMetrics transferMetrics;
+    private final DiskConcurrencyLimiter diskConcurrencyLimiter;
+
+    public void deleteFolder(Path userRoot, Path folderPath) throws IOException {
+        if (!Files.exists(folderPath)) {
+            return;
+        }
+        long bytes = 0;
+        long files = 0;
+        // Файлы удаляются через хранилище блобов, чтобы освободить содержимое, на которое больше никто не ссылается
+        try (Stream<Path> paths = Files.walk(folderPath)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    Files.delete(path);
+                } else {
+                    long size = blobStore.contentLength(path);
+                    blobStore.delete(path);
+                    bytes += size;
+                    files++;
+                }
+            }
+        } finally {
+            storageUsageService.release(userRoot, bytes, files);
+        }
+        eventPublisher.publishEvent(StorageChangeEvent.deleted(folderPath));
     }
 
     public void createFolder(Path path) throws IOException {
         FileUtils.createDirectoriesIfNotExist(path);
+        eventPublisher.publishEvent(StorageChangeEvent.created(path));
     }
 
-    public String uploadFolder(Path userRoot, List<MultipartFile> files, List<String> relativePaths, String parentFolderId) throws IOException {
+    public FolderUploadResultDTO uploadFolder(Path userRoot, List<MultipartFile> files, List<String> relativePaths, String parentFolderId) throws IOException {
         if (files == null || files.isEmpty() || relativePaths == null || relativePaths.isEmpty() || files.size() != relativePaths.size()) {
             throw new IllegalArgumentException("Некорректные данные для загрузки папки");
         }
 
-        Path relPathObj = Paths.get(relativePaths.get(0));
-        Path targetRoot = FileUtils.resolveSecurePath(userRoot, parentFolderId).resolve(relPathObj.getName(0));
+        long started = System.nanoTime();
+        Path targetRoot = resolveFolderUploadRoot(userRoot, parentFolderId, relativePaths.get(0));
         String timestamp = FileUtils.generateTimestampedFileName("");
 
+        List<Path> targets = new ArrayList<>(files.size());
         for (int i = 0; i < files.size(); i++) {
-            MultipartFile file = files.get(i);
-            Path relPath = Paths.get(relativePaths.get(i));
-
-            Path subPath = relPath.getNameCount() > 1
-                    ? relPath.subpath(1, relPath.getNameCount())
-                    : Paths.get(Objects.requireNonNull(file.getOriginalFilename()));
-
-            String fileNameWithTimestamp = timestamp + "_" + subPath.getFileName();
-            Path fullTargetPath = targetRoot.resolve(
-                    subPath.getParent() != null
-                            ? subPath.getParent().resolve(fileNameWithTimestamp)
-                            : Paths.get(fileNameWithTimestamp)
-            ).normalize();
-
-            if (!fullTargetPath.startsWith(userRoot)) {
-                throw new SecurityException("Выход за пределы директории пользователя");
-            }
+            targets.add(resolveFolderEntryTarget(userRoot, targetRoot, Paths.get(relativePaths.get(i)),
+                    Objects.requireNonNull(files.get(i).getOriginalFilename()), timestamp));
+        }
+        // Каркас папок создаётся одним проходом, а не перед каждым файлом
+        for (Path directory : new LinkedHashSet<>(targets.stream().map(Path::getParent).toList())) {
+            FileUtils.createDirectoriesIfNotExist(directory);
+        }
 
-            FileUtils.createDirectoriesIfNotExist(fullTargetPath.getParent());
-            try (InputStream in = file.getInputStream()) {
-                Files.copy(in, fullTargetPath, StandardCopyOption.REPLACE_EXISTING);
-            }
+        // Место резервируется сразу под всю папку; доля файлов, которые не удалось записать, возвращается
+        long totalBytes = files.stream().mapToLong(MultipartFile::getSize).sum();
+        storageUsageService.reserve(userRoot, totalBytes, files.size());
+        SortedMap<Integer, Exception> failures;
+        try {
+            failures = folderIngestor.write(userRoot, files, targets,
+                    target -> eventPublisher.publishEvent(StorageChangeEvent.created(target)));
+        } catch (IOException | RuntimeException e) {
+            storageUsageService.release(userRoot, totalBytes, files.size());
+            throw e;
         }
 
-        return userRoot.relativize(targetRoot).toString();
+        List<FailedFileDTO> failedFiles = new ArrayList<>(failures.size());
+        long failedBytes = 0;
+        for (Map.Entry<Integer, Exception> failure : failures.entrySet()) {
+            int index = failure.getKey();
+            log.warn("Файл '{}' папки не сохранён: {}", relativePaths.get(index), failure.getValue().getMessage());
+            failedFiles.add(new FailedFileDTO(relativePaths.get(index), failure.getValue().getMessage()));
+            failedBytes += files.get(index).getSize();
+        }
+        storageUsageService.release(userRoot, failedBytes, failedFiles.size());
+        transferMetrics.recordUpload(TransferMetrics.FOLDER, totalBytes - failedBytes, System.nanoTime() - started);
+        return new FolderUploadResultDTO(userRoot.relativize(targetRoot).toString(),
+                files.size() - failedFiles.size(), failedFiles);
+    }
+
+    public Path resolveFolderUploadRoot(Path userRoot, String parentFolderId, String firstRelativePath) {
+        Path relPathObj = Paths.get(firstRelativePath);
+        return FileUtils.resolveSecurePath(userRoot, parentFolderId).resolve(relPathObj.getName(0));
     }
 
-    public byte[] downloadFolder(Path userRoot, String folderId) {
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-            zipFolder(FileUtils.resolveSecurePath(userRoot, folderId), outputStream);
-            return outputStream.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    public Path resolveFolderEntryTarget(Path userRoot, Path targetRoot, Path relPath, String originalFileName, String timestamp) {
+        Path subPath = relPath.getNameCount() > 1
+                ? relPath.subpath(1, relPath.getNameCount())
+                : Paths.get(originalFileName);
+
+        String fileNameWithTimestamp = timestamp + "_" + subPath.getFileName();
+        Path fullTargetPath = targetRoot.resolve(
+                subPath.getParent() != null
+                        ? subPath.getParent().resolve(fileNameWithTimestamp)
+                        : Paths.get(fileNameWithTimestamp)
+        ).normalize();
+
+        if (!fullTargetPath.startsWith(userRoot)) {
+            throw new SecurityException("Выход за пределы директории пользователя");
         }
+        return fullTargetPath;
     }
 
-    private void zipFolder(Path folderPath, OutputStream outputStream) throws IOException {
-        try (ZipOutputStream zipOut = new ZipOutputStream(outputStream)) {
-            Files.walk(folderPath)
-                    .filter(Files::isRegularFile)
+    public Path resolveFolderForDownload(Path userRoot, String folderId) throws FileNotFoundException {
+        Path folderPath = FileUtils.resolveSecurePath(userRoot, folderId);
+        if (!Files.isDirectory(folderPath)) {
+            throw new FileNotFoundException("Папка не найдена: " + folderId);
+        }
+        return folderPath;
+    }
+
+    public void zipFolder(Path folderPath, OutputStream outputStream) throws IOException {
+        if (storageProperties.getArchive().isParallel()) {
+            log.debug("Параллельная архивация папки {}", folderPath);
+            parallelZipWriter.write(folderPath, outputStream);
+            return;
+        }
+
+        OutputStream target = new BufferedOutputStream(CloseShieldOutputStream.wrap(outputStream), ZIP_BUFFER_SIZE);
+        try (ZipOutputStream zipOut = new ZipOutputStream(target);
+             Stream<Path> paths = Files.walk(folderPath)) {
+            paths.filter(Files::isRegularFile)
                     .forEach(path -> {
                         try {
-                            ZipEntry zipEntry = new ZipEntry(folderPath.relativize(path).toString());
+                            String entryName = folderPath.relativize(path).toString().replace(File.separatorChar, '/');
+                            ZipEntry zipEntry = new ZipEntry(entryName);
+                            zipEntry.setTime(Files.getLastModifiedTime(path).toMillis());
                             zipOut.putNextEntry(zipEntry);
-                            Files.copy(path, zipOut);
+                            try (InputStream in = diskConcurrencyLimiter.limitReads(blobStore.openContent(path), path)) {
+                                in.transferTo(zipOut);
+                            }
                             zipOut.closeEntry();
                         } catch (IOException e) {
                             throw new UncheckedIOException(e);
                         }
                     });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Только обход с атрибутами из каталога, без чтения содержимого: заметно дешевле самой архивации
+    public ArchiveVersion archiveVersion(Path folderPath) throws IOException {
+        List<String> entries = new ArrayList<>();
+        long[] lastModified = {0};
+        Files.walkFileTree(folderPath, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                lastModified[0] = Math.max(lastModified[0], attrs.lastModifiedTime().toMillis());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    long modified = attrs.lastModifiedTime().toMillis();
+                    lastModified[0] = Math.max(lastModified[0], modified);
+                    entries.add(folderPath.relativize(file) + "\0" + attrs.size() + "\0" + modified);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        // Порядок обхода зависит от файловой системы, поэтому отпечаток считается по отсортированному списку
+        Collections.sort(entries);
+        MessageDigest digest = BlobStore.newDigest();
+        for (String entry : entries) {
+            digest.update(entry.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
         }
+        return new ArchiveVersion(HexFormat.of().formatHex(digest.digest(), 0, FINGERPRINT_BYTES), lastModified[0]);
     }
-}
\ No newline at end of file
+}
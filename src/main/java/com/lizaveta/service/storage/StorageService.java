@@ -1,28 +1,48 @@
 package com.lizaveta.service.storage;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.lizaveta.config.StoragePath;
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.model.fileDTO.ContentSearchResultDto;
+import com.lizaveta.model.fileDTO.DirectoryCacheStatsDto;
 import com.lizaveta.model.fileDTO.FileInfoDto;
+import com.lizaveta.model.fileDTO.FileListPageDto;
 import com.lizaveta.model.fileDTO.FileType;
+import com.lizaveta.model.fileDTO.FolderSizeDto;
+import com.lizaveta.model.fileDTO.StorageUsageDto;
+import com.lizaveta.model.uploadDTO.FolderUploadResultDTO;
+import com.lizaveta.model.uploadDTO.HashUploadRequestDTO;
+import com.lizaveta.model.uploadDTO.TransferStatsDTO;
 import com.lizaveta.service.auth.UserService;
+import com.lizaveta.service.storage.blob.BlobStore;
+import com.lizaveta.service.storage.io.DiskConcurrencyLimiter;
+import com.lizaveta.service.storage.listing.DirectoryListingService;
+import com.lizaveta.service.storage.listing.DirectoryMetadataCache;
+import com.lizaveta.service.storage.listing.ListingSort;
+import com.lizaveta.service.storage.metrics.TransferMetrics;
+import com.lizaveta.service.storage.search.ContentIndexService;
+import com.lizaveta.service.storage.search.FileNameIndexService;
+import com.lizaveta.service.storage.transfer.TransferScheduler;
+import com.lizaveta.service.storage.usage.FolderSizeIndexService;
+import com.lizaveta.service.storage.usage.StorageUsageService;
 import com.lizaveta.service.storage.util.FileUtils;
-import org.springframework.scheduling.annotation.Async;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import lombok.RequiredArgsConstructor;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
-import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 @Slf4j
 @Service
@@ -33,71 +53,138 @@ public class StorageService {
     private final HttpServletRequest request;
     private final FolderService folderService;
     private final FileService fileService;
+    private final BlobStore blobStore;
+    private final FileNameIndexService fileNameIndexService;
+    private final ContentIndexService contentIndexService;
+    private final DirectoryListingService directoryListingService;
+    private final DirectoryMetadataCache directoryMetadataCache;
+    private final StorageUsageService storageUsageService;
+    private final FolderSizeIndexService folderSizeIndexService;
+    private final StorageProperties storageProperties;
 
-    private final ExecutorService executorService = Executors.newFixedThreadPool(10);
+    private final TransferScheduler transferScheduler;
+    private final DiskConcurrencyLimiter diskConcurrencyLimiter;
+    private final TransferMetrics transferMetrics;
 
     private static final Path GLOBAL_STORAGE_ROOT = StoragePath.detect().getPath();
+    private static final String USER_ROOT_ATTRIBUTE = StorageService.class.getName() + ".userRoot";
 
     public List<FileInfoDto> listFilesAsDto(String relativePath) throws IOException {
-        Path targetDir = FileUtils.resolveSecurePath(getUserStorageRoot(), relativePath);
+        Path userRoot = getUserStorageRoot();
+        Path targetDir = FileUtils.resolveSecurePath(userRoot, relativePath);
         log.debug("Получение списка файлов в директории: {}", targetDir);
 
         if (!Files.exists(targetDir) || !Files.isDirectory(targetDir)) return Collections.emptyList();
 
         List<FileInfoDto> files = new ArrayList<>();
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(targetDir)) {
-            for (Path path : stream) {
-                FileType type = Files.isDirectory(path) ? FileType.FOLDER : FileType.FILE;
-                files.add(new FileInfoDto(
-                        getUserStorageRoot().relativize(path).toString(),
-                        path.getFileName().toString(),
-                        type
-                ));
-            }
+        for (DirectoryMetadataCache.EntryMetadata entry : directoryMetadataCache.list(targetDir)) {
+            FileType type = entry.directory() ? FileType.FOLDER : FileType.FILE;
+            files.add(new FileInfoDto(
+                    userRoot.relativize(targetDir.resolve(entry.name())).toString(),
+                    entry.name(),
+                    type
+            ));
         }
         return files;
     }
 
-    @Async("executorService")
+    public FileListPageDto listFilesPage(String relativePath, String sort, boolean descending,
+                                         Integer limit, String cursor, boolean details) throws IOException {
+        Path userRoot = getUserStorageRoot();
+        Path targetDir = FileUtils.resolveSecurePath(userRoot, relativePath);
+        log.debug("Получение страницы списка файлов в директории: {}", targetDir);
+
+        return directoryListingService.listPage(userRoot, targetDir, ListingSort.parse(sort), descending, limit, cursor, details);
+    }
+
     public CompletableFuture<String> uploadMultipartFileAsync(MultipartFile file, String folderId, Path userRootPath) throws IOException {
-        log.info("Начата асинхронная загрузка файла: {}", file.getOriginalFilename());
+        log.debug("Начата асинхронная загрузка файла: {}", file.getOriginalFilename());
+        storageUsageService.checkAvailable(userRootPath, file.getSize());
 
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                return fileService.uploadFile(userRootPath, file, folderId);
-            } catch (IOException e) {
-                throw new CompletionException(e);
+        return transferScheduler.submit(userRootPath.getFileName().toString(), () -> {
+            try (DiskConcurrencyLimiter.Permit permit = diskConcurrencyLimiter.acquire(userRootPath)) {
+                long started = System.nanoTime();
+                String fileId = fileService.uploadFile(userRootPath, file, folderId);
+                transferMetrics.recordUpload(TransferMetrics.MULTIPART, file.getSize(), System.nanoTime() - started);
+                return fileId;
             }
-        }, executorService);
+        });
     }
 
-    @Async("executorService")
-    public CompletableFuture<String> uploadFolderAsync(List<MultipartFile> files, List<String> relativePaths, String parentFolderId, Path userRootPath) throws IOException {
-        log.info("Начата асинхронная загрузка папки с {} файлами", files.size());
+    public CompletableFuture<FolderUploadResultDTO> uploadFolderAsync(List<MultipartFile> files, List<String> relativePaths, String parentFolderId, Path userRootPath) throws IOException {
+        log.debug("Начата асинхронная загрузка папки с {} файлами", files.size());
+        storageUsageService.checkAvailable(userRootPath, files.stream().mapToLong(MultipartFile::getSize).sum());
 
-        return CompletableFuture.supplyAsync(() -> {
-            try {
+        return transferScheduler.submit(userRootPath.getFileName().toString(), () -> {
+            try (DiskConcurrencyLimiter.Permit permit = diskConcurrencyLimiter.acquire(userRootPath)) {
                 return folderService.uploadFolder(userRootPath, files, relativePaths, parentFolderId);
-            } catch (IOException e) {
-                throw new CompletionException(e);
             }
-        }, executorService);
+        });
     }
 
-    @Async("executorService")
-    public CompletableFuture<byte[]> downloadFileToByteArrayAsync(String fileId, Path userRootPath) throws IOException {
-        log.info("Асинхронная загрузка файла с ID: {}", fileId);
+    /**
+     * Передача на потоке запроса (потоковая загрузка, части сессий, дельта): на всё время запроса занимает
+     * место в планировщике передач пользователя и разрешение на диск, как и асинхронные загрузки.
+     */
+    public <T> T runTransfer(Path userRootPath, TransferBody<T> body) throws IOException {
+        try (TransferScheduler.Slot slot = transferScheduler.admit(userRootPath.getFileName().toString());
+             DiskConcurrencyLimiter.Permit permit = diskConcurrencyLimiter.acquire(userRootPath)) {
+            return body.run();
+        }
+    }
 
-        return CompletableFuture.supplyAsync(() ->
-                fileService.downloadFileToByteArray(userRootPath, fileId), executorService);
+    @FunctionalInterface
+    public interface TransferBody<T> {
+        T run() throws IOException;
     }
 
-    @Async("executorService")
-    public CompletableFuture<byte[]> downloadFolderAsZipAsync(String folderId, Path userRootPath) {
-        log.info("Асинхронная загрузка папки с ID: {}", folderId);
+    public Optional<String> uploadByHash(HashUploadRequestDTO request, Path userRootPath) throws IOException {
+        if (request.sha256() == null || request.fileName() == null || request.fileName().isBlank()) {
+            throw new IllegalArgumentException("Не указаны хэш или имя файла");
+        }
+        String folderId = request.folderId() != null ? request.folderId() : "";
+        Optional<String> fileId = fileService.linkByHash(userRootPath, request.sha256(), request.fileName(), folderId);
+        log.debug("Загрузка по хэшу {}: {}", request.sha256(), fileId.isPresent() ? "содержимое найдено" : "нужна передача");
+        return fileId;
+    }
 
-        return CompletableFuture.supplyAsync(() ->
-                folderService.downloadFolder(userRootPath, folderId), executorService);
+    public FolderSizeDto getFolderSize(String relativePath, int limit) throws IOException {
+        if (limit <= 0 || limit > storageProperties.getListing().getMaxPageSize()) {
+            throw new IllegalArgumentException("Недопустимое число записей: " + limit);
+        }
+        Path userRoot = getUserStorageRoot();
+        Path folder = FileUtils.resolveSecurePath(userRoot, relativePath);
+        log.debug("Получение размера папки: {}", folder);
+
+        return folderSizeIndexService.getFolderSize(userRoot, folder, limit);
+    }
+
+    public StorageUsageDto getUsage() throws IOException {
+        return storageUsageService.getUsage(getUserStorageRoot());
+    }
+
+    public FileSystemResource getFileForDownload(String fileId) throws IOException {
+        log.debug("Подготовка потоковой отдачи файла с ID: {}", fileId);
+
+        return fileService.downloadFile(getUserStorageRoot(), fileId);
+    }
+
+    public Path getFolderForDownload(String folderId) throws IOException {
+        log.debug("Подготовка потокового архива папки с ID: {}", folderId);
+
+        return folderService.resolveFolderForDownload(getUserStorageRoot(), folderId);
+    }
+
+    public FolderService.ArchiveVersion getArchiveVersion(Path folderPath) throws IOException {
+        return folderService.archiveVersion(folderPath);
+    }
+
+    public void writeFolderAsZip(Path folderPath, OutputStream outputStream) throws IOException {
+        // Разрешения на диск берутся внутри архивации на каждое чтение, а не на весь поток ответа
+        long started = System.nanoTime();
+        CountingOutputStream counting = new CountingOutputStream(outputStream);
+        folderService.zipFolder(folderPath, counting);
+        transferMetrics.recordZip(counting.getByteCount(), System.nanoTime() - started);
     }
 
     public void deleteFile(String filePath) throws IOException {
@@ -109,38 +196,43 @@ public class StorageService {
     public void deleteFolderRecursively(String folderId) throws IOException {
         log.warn("Удаление папки рекурсивно: {}", folderId);
 
-        Path folderPath = FileUtils.resolveSecurePath(getUserStorageRoot(), folderId);
-        folderService.deleteFolder(folderPath);
+        Path userRoot = getUserStorageRoot();
+        Path folderPath = FileUtils.resolveSecurePath(userRoot, folderId);
+        folderService.deleteFolder(userRoot, folderPath);
     }
 
     public List<FileInfoDto> searchFilesByNameAsDto(String nameQuery) throws IOException {
         log.debug("Поиск файлов по имени: {}", nameQuery);
 
-        List<FileInfoDto> result = new ArrayList<>();
-        Files.walk(getUserStorageRoot())
-                .filter(path -> path.getFileName().toString().contains(nameQuery))
-                .forEach(path -> {
-                    FileType type = Files.isDirectory(path) ? FileType.FOLDER : FileType.FILE;
-                    try {
-                        result.add(new FileInfoDto(
-                                getUserStorageRoot().relativize(path).toString(),
-                                path.getFileName().toString(),
-                                type
-                        ));
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                });
-        return result;
+        return fileNameIndexService.search(getUserStorageRoot(), nameQuery);
+    }
+
+    public List<ContentSearchResultDto> searchFilesByContent(String query) throws IOException {
+        log.debug("Поиск файлов по содержимому: {}", query);
+
+        return contentIndexService.search(getUserStorageRoot(), query);
+    }
+
+    public TransferStatsDTO getTransferStats() throws IOException {
+        getUserStorageRoot();
+        return transferScheduler.stats();
+    }
+
+    public DirectoryCacheStatsDto getDirectoryCacheStats() throws IOException {
+        getUserStorageRoot();
+        CacheStats stats = directoryMetadataCache.stats();
+        return new DirectoryCacheStatsDto(stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount(),
+                directoryMetadataCache.cachedDirectories(), directoryMetadataCache.watchedDirectories());
     }
 
     public String createFolder(String name, String parentFolderId) throws IOException {
-        log.info("Создание новой папки '{}' в родительской папке '{}'", name, parentFolderId);
+        log.debug("Создание новой папки '{}' в родительской папке '{}'", name, parentFolderId);
 
-        Path parentPath = FileUtils.resolveSecurePath(getUserStorageRoot(), parentFolderId);
+        Path userRoot = getUserStorageRoot();
+        Path parentPath = FileUtils.resolveSecurePath(userRoot, parentFolderId);
         Path newFolderPath = parentPath.resolve(name);
         folderService.createFolder(newFolderPath);
-        return getUserStorageRoot().relativize(newFolderPath).toString();
+        return userRoot.relativize(newFolderPath).toString();
     }
 
     public void createUserFolder(String folderId) throws IOException {
@@ -154,14 +246,20 @@ public class StorageService {
         log.warn("Удаление пользовательской папки с ID: {}", folderId);
 
         Path folderPath = FileUtils.resolveSecurePath(GLOBAL_STORAGE_ROOT, folderId);
-        folderService.deleteFolder(folderPath);
+        folderService.deleteFolder(folderPath, folderPath);
+        blobStore.forgetOwner(folderPath.getFileName().toString());
+        storageUsageService.forget(folderPath);
     }
 
     public Path getUserStorageRoot() throws IOException {
+        // Корень вычисляется один раз за запрос и запоминается в его атрибутах
+        if (request.getAttribute(USER_ROOT_ATTRIBUTE) instanceof Path cached) {
+            return cached;
+        }
         log.debug("Извлечение пути пользовательского хранилища");
 
         String token = userService.extractTokenFromCookies(request);
-        return userService.getUserByAccessToken(token)
+        Path userRoot = userService.getUserByAccessToken(token)
                 .map(user -> GLOBAL_STORAGE_ROOT.resolve(user.getId()).normalize())
                 .filter(path -> path.startsWith(GLOBAL_STORAGE_ROOT))
                 .map(path -> {
@@ -173,5 +271,7 @@ public class StorageService {
                     }
                 })
                 .orElseThrow(() -> new SecurityException("Недопустимый токен или пользователь не найден"));
+        request.setAttribute(USER_ROOT_ATTRIBUTE, userRoot);
+        return userRoot;
     }
 }
@@ -0,0 +1,42 @@
+package com.lizaveta.service.storage.archive;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.Tika;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+@Slf4j
+@Component
+public class CompressedContentDetector {
+
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+            "image/jpeg", "image/png", "image/gif", "image/webp", "image/heic", "image/heif", "image/avif", "image/jp2",
+            "audio/mpeg", "audio/mp4", "audio/aac", "audio/ogg", "audio/opus", "audio/x-flac", "audio/webm",
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2", "application/x-xz",
+            "application/x-7z-compressed", "application/x-rar-compressed", "application/vnd.rar", "application/zstd",
+            "application/x-lzma", "application/x-lz4", "application/java-archive", "application/epub+zip",
+            "application/vnd.android.package-archive"
+    );
+
+    private static final List<String> COMPRESSED_PREFIXES = List.of(
+            "video/",
+            "application/vnd.openxmlformats-officedocument.",
+            "application/vnd.oasis.opendocument."
+    );
+
+    private final Tika tika = new Tika();
+
+    public boolean isCompressed(Path file) {
+        try {
+            String mediaType = tika.detect(file);
+            return COMPRESSED_TYPES.contains(mediaType) || COMPRESSED_PREFIXES.stream().anyMatch(mediaType::startsWith);
+        } catch (IOException e) {
+            log.debug("Не удалось определить тип файла {}: {}", file, e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.lizaveta.service.storage.archive;
+
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.service.storage.blob.BlobStore;
+import com.lizaveta.service.storage.io.DiskConcurrencyLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Пишет ZIP-архив папки, сжимая записи параллельно на пуле потоков.
+ * java.util.zip.ZipOutputStream не умеет принимать заранее сжатые данные,
+ * поэтому заголовки, центральный каталог и ZIP64-структуры формируются здесь вручную.
+ * Записи попадают в поток в порядке обхода дерева; одновременно в работе не больше окна задач,
+ * а сжатые данные крупных файлов временно лежат на диске, так что память ограничена.
+ */
+@Slf4j
+@Component
+public class ParallelZipWriter implements MeterBinder {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_ENTRY_COUNT_MAGIC = 0xFFFF;
+    private static final short ZIP64_EXTRA_TAG = 0x0001;
+    private static final short VERSION_DEFAULT = 20;
+    private static final short VERSION_ZIP64 = 45;
+    private static final short UTF8_FLAG = 0x0800;
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final CompressedContentDetector compressedContentDetector;
+    private final BlobStore blobStore;
+    private final DiskConcurrencyLimiter diskConcurrencyLimiter;
+    private final StorageProperties.Archive properties;
+    private final ExecutorService compressionPool;
+
+    public ParallelZipWriter(CompressedContentDetector compressedContentDetector, BlobStore blobStore,
+                             DiskConcurrencyLimiter diskConcurrencyLimiter, StorageProperties storageProperties) {
+        this.compressedContentDetector = compressedContentDetector;
+        this.blobStore = blobStore;
+        this.diskConcurrencyLimiter = diskConcurrencyLimiter;
+        this.properties = storageProperties.getArchive();
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.compressionPool = Executors.newFixedThreadPool(properties.getThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "ZipCompressor-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new ExecutorServiceMetrics(compressionPool, "zip-compressor", Tags.empty()).bindTo(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        compressionPool.shutdownNow();
+    }
+
+    public void write(Path folderPath, OutputStream outputStream) throws IOException {
+        CountingOutputStream out = new CountingOutputStream(
+                new BufferedOutputStream(CloseShieldOutputStream.wrap(outputStream), COPY_BUFFER_SIZE));
+        List<CentralDirectoryRecord> centralDirectory = new ArrayList<>();
+        Deque<Future<PreparedEntry>> window = new ArrayDeque<>();
+        int windowSize = Math.max(2, properties.getThreads() * 2);
+
+        try (Stream<Path> paths = Files.walk(folderPath)) {
+            Iterator<Path> files = paths.filter(Files::isRegularFile).iterator();
+            while (files.hasNext()) {
+                Path file = files.next();
+                window.addLast(compressionPool.submit(() -> prepare(folderPath, file)));
+                if (window.size() >= windowSize) {
+                    centralDirectory.add(writeEntry(await(window.pollFirst()), out));
+                }
+            }
+            while (!window.isEmpty()) {
+                centralDirectory.add(writeEntry(await(window.pollFirst()), out));
+            }
+            writeCentralDirectory(centralDirectory, out);
+            out.flush();
+            log.debug("Архив папки {} записан: {} записей, {} байт", folderPath, centralDirectory.size(), out.getByteCount());
+        } catch (IOException | RuntimeException e) {
+            discard(window);
+            throw e;
+        }
+    }
+
+    private PreparedEntry prepare(Path folderPath, Path file) throws IOException {
+        String name = folderPath.relativize(file).toString().replace(File.separatorChar, '/');
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        int dosTime = toDosTime(attributes.lastModifiedTime().toMillis());
+        boolean encoded = blobStore.readEncoding(file).isPresent();
+        long size = encoded ? blobStore.contentLength(file, attributes.size()) : attributes.size();
+
+        // Сжатое при хранении содержимое заведомо сжимаемо, а детектор по файлу на диске увидел бы gzip
+        if (size == 0 || !encoded && compressedContentDetector.isCompressed(file)) {
+            return stored(name, file, dosTime);
+        }
+        return deflated(name, file, size, dosTime);
+    }
+
+    private PreparedEntry stored(String name, Path file, int dosTime) throws IOException {
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (InputStream in = openContent(file)) {
+            byte[] chunk = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                crc.update(chunk, 0, read);
+                size += read;
+            }
+        }
+        return new PreparedEntry(name, ZipEntry.STORED, dosTime, crc.getValue(), size, size, file, null, null);
+    }
+
+    private PreparedEntry deflated(String name, Path file, long size, int dosTime) throws IOException {
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(properties.getCompressionLevel(), true);
+        ByteArrayOutputStream buffer = null;
+        Path tempFile = null;
+        try {
+            OutputStream sink;
+            if (size <= properties.getInMemoryEntryLimit().toBytes()) {
+                buffer = new ByteArrayOutputStream((int) Math.max(64, size / 2));
+                sink = buffer;
+            } else {
+                tempFile = Files.createTempFile("off-chance-zip-", ".deflate");
+                sink = new BufferedOutputStream(Files.newOutputStream(tempFile), COPY_BUFFER_SIZE);
+            }
+
+            long uncompressedSize = 0;
+            try (InputStream in = openContent(file);
+                 DeflaterOutputStream deflaterOut = new DeflaterOutputStream(sink, deflater, COPY_BUFFER_SIZE)) {
+                byte[] chunk = new byte[COPY_BUFFER_SIZE];
+                int read;
+                while ((read = in.read(chunk)) != -1) {
+                    crc.update(chunk, 0, read);
+                    deflaterOut.write(chunk, 0, read);
+                    uncompressedSize += read;
+                }
+            }
+
+            long compressedSize = deflater.getBytesWritten();
+            if (compressedSize >= uncompressedSize) {
+                // Сжатие не дало выигрыша — данные пишутся как есть прямо из файла
+                deleteQuietly(tempFile);
+                return new PreparedEntry(name, ZipEntry.STORED, dosTime, crc.getValue(),
+                        uncompressedSize, uncompressedSize, file, null, null);
+            }
+            return new PreparedEntry(name, ZipEntry.DEFLATED, dosTime, crc.getValue(), uncompressedSize, compressedSize,
+                    null, buffer != null ? buffer.toByteArray() : null, tempFile);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(tempFile);
+            throw e;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private CentralDirectoryRecord writeEntry(PreparedEntry entry, CountingOutputStream out) throws IOException {
+        long offset = out.getByteCount();
+        byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+        boolean zip64 = entry.uncompressedSize() >= ZIP64_MAGIC || entry.compressedSize() >= ZIP64_MAGIC;
+
+        ByteBuffer header = ByteBuffer.allocate(30 + name.length + (zip64 ? 20 : 0)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIGNATURE);
+        header.putShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        header.putShort(UTF8_FLAG);
+        header.putShort((short) entry.method());
+        header.putInt(entry.dosTime());
+        header.putInt((int) entry.crc());
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : entry.compressedSize()));
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : entry.uncompressedSize()));
+        header.putShort((short) name.length);
+        header.putShort((short) (zip64 ? 20 : 0));
+        header.put(name);
+        if (zip64) {
+            header.putShort(ZIP64_EXTRA_TAG);
+            header.putShort((short) 16);
+            header.putLong(entry.uncompressedSize());
+            header.putLong(entry.compressedSize());
+        }
+        out.write(header.array());
+
+        try {
+            writeData(entry, out);
+        } finally {
+            deleteQuietly(entry.tempFile());
+        }
+        return new CentralDirectoryRecord(name, entry.method(), entry.dosTime(), entry.crc(),
+                entry.uncompressedSize(), entry.compressedSize(), offset, zip64);
+    }
+
+    private void writeData(PreparedEntry entry, OutputStream out) throws IOException {
+        if (entry.data() != null) {
+            out.write(entry.data());
+            return;
+        }
+        try (InputStream in = entry.tempFile() != null
+                ? Files.newInputStream(entry.tempFile())
+                : openContent(entry.sourceFile())) {
+            long copied = IOUtils.copyLarge(in, out, 0, entry.compressedSize());
+            if (copied != entry.compressedSize()) {
+                throw new IOException("Файл изменился во время архивации: " + entry.name());
+            }
+        }
+    }
+
+    // Разрешение на диск берётся на каждое чтение: запись несжатых данных идёт прямо в ответ,
+    // и медленный клиент не должен держать его всё время передачи
+    private InputStream openContent(Path file) throws IOException {
+        return diskConcurrencyLimiter.limitReads(blobStore.openContent(file), file);
+    }
+
+    private void writeCentralDirectory(List<CentralDirectoryRecord> records, CountingOutputStream out) throws IOException {
+        long centralDirectoryOffset = out.getByteCount();
+        for (CentralDirectoryRecord record : records) {
+            boolean uncompressed64 = record.uncompressedSize() >= ZIP64_MAGIC;
+            boolean compressed64 = record.compressedSize() >= ZIP64_MAGIC;
+            boolean offset64 = record.offset() >= ZIP64_MAGIC;
+            int extraDataLength = (uncompressed64 ? 8 : 0) + (compressed64 ? 8 : 0) + (offset64 ? 8 : 0);
+            int extraLength = extraDataLength > 0 ? extraDataLength + 4 : 0;
+            boolean zip64 = record.localZip64() || extraLength > 0;
+
+            ByteBuffer header = ByteBuffer.allocate(46 + record.name().length + extraLength).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(CENTRAL_HEADER_SIGNATURE);
+            header.putShort(VERSION_ZIP64);
+            header.putShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+            header.putShort(UTF8_FLAG);
+            header.putShort((short) record.method());
+            header.putInt(record.dosTime());
+            header.putInt((int) record.crc());
+            header.putInt((int) (compressed64 ? ZIP64_MAGIC : record.compressedSize()));
+            header.putInt((int) (uncompressed64 ? ZIP64_MAGIC : record.uncompressedSize()));
+            header.putShort((short) record.name().length);
+            header.putShort((short) extraLength);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putShort((short) 0);
+            header.putInt(0);
+            header.putInt((int) (offset64 ? ZIP64_MAGIC : record.offset()));
+            header.put(record.name());
+            if (extraLength > 0) {
+                header.putShort(ZIP64_EXTRA_TAG);
+                header.putShort((short) extraDataLength);
+                if (uncompressed64) {
+                    header.putLong(record.uncompressedSize());
+                }
+                if (compressed64) {
+                    header.putLong(record.compressedSize());
+                }
+                if (offset64) {
+                    header.putLong(record.offset());
+                }
+            }
+            out.write(header.array());
+        }
+
+        long centralDirectorySize = out.getByteCount() - centralDirectoryOffset;
+        int entryCount = records.size();
+        if (entryCount >= ZIP64_ENTRY_COUNT_MAGIC
+                || centralDirectoryOffset >= ZIP64_MAGIC
+                || centralDirectorySize >= ZIP64_MAGIC) {
+            long zip64EndOffset = out.getByteCount();
+            ByteBuffer zip64End = ByteBuffer.allocate(56 + 20).order(ByteOrder.LITTLE_ENDIAN);
+            zip64End.putInt(ZIP64_END_SIGNATURE);
+            zip64End.putLong(44);
+            zip64End.putShort(VERSION_ZIP64);
+            zip64End.putShort(VERSION_ZIP64);
+            zip64End.putInt(0);
+            zip64End.putInt(0);
+            zip64End.putLong(entryCount);
+            zip64End.putLong(entryCount);
+            zip64End.putLong(centralDirectorySize);
+            zip64End.putLong(centralDirectoryOffset);
+            zip64End.putInt(ZIP64_LOCATOR_SIGNATURE);
+            zip64End.putInt(0);
+            zip64End.putLong(zip64EndOffset);
+            zip64End.putInt(1);
+            out.write(zip64End.array());
+        }
+
+        ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(END_SIGNATURE);
+        end.putShort((short) 0);
+        end.putShort((short) 0);
+        end.putShort((short) Math.min(entryCount, ZIP64_ENTRY_COUNT_MAGIC));
+        end.putShort((short) Math.min(entryCount, ZIP64_ENTRY_COUNT_MAGIC));
+        end.putInt((int) Math.min(centralDirectorySize, ZIP64_MAGIC));
+        end.putInt((int) Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+        end.putShort((short) 0);
+        out.write(end.array());
+    }
+
+    private PreparedEntry await(Future<PreparedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Архивация прервана");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Ошибка при сжатии записи архива", e.getCause());
+        }
+    }
+
+    private void discard(Deque<Future<PreparedEntry>> window) {
+        for (Future<PreparedEntry> future : window) {
+            if (!future.cancel(true) && future.isDone()) {
+                try {
+                    deleteQuietly(future.get().tempFile());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException ignored) {
+                    // Задача уже завершилась ошибкой, удалять нечего
+                }
+            }
+        }
+        window.clear();
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Не удалось удалить временный файл архива {}", file, e);
+        }
+    }
+
+    private static int toDosTime(long epochMillis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            time = LocalDateTime.of(1980, 1, 1, 0, 0);
+        }
+        int dosDate = ((time.getYear() - 1980) << 9) | (time.getMonthValue() << 5) | time.getDayOfMonth();
+        int dosClock = (time.getHour() << 11) | (time.getMinute() << 5) | (time.getSecond() >> 1);
+        return (dosDate << 16) | dosClock;
+    }
+
+    private record PreparedEntry(String name, int method, int dosTime, long crc,
+                                 long uncompressedSize, long compressedSize,
+                                 Path sourceFile, byte[] data, Path tempFile) {
+    }
+
+    private record CentralDirectoryRecord(byte[] name, int method, int dosTime, long crc,
+                                          long uncompressedSize, long compressedSize,
+                                          long offset, boolean localZip64) {
+    }
+}
@@ -0,0 +1,471 @@
+package com.lizaveta.service.storage.blob;
+
+import com.lizaveta.config.StoragePath;
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.service.storage.archive.CompressedContentDetector;
+import com.lizaveta.service.storage.util.FileUtils;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Контентно-адресуемое хранилище с дедупликацией. Содержимое хранится один раз в .blobs/ab/cd/&lt;sha256&gt;,
+ * а файлы пользователей — жёсткие ссылки на блоб, поэтому все пути чтения работают с ними как с обычными файлами.
+ * Счётчик ссылок — число жёстких ссылок inode: блоб удаляется, когда на него не ссылается ни один файл.
+ * Хэш записывается в расширенный атрибут inode и виден через любую ссылку; он же служит строгим ETag при скачивании,
+ * поэтому сохраняется и при выключенной дедупликации.
+ * Если файловая система не поддерживает жёсткие ссылки, хранилище работает как обычная запись в целевой путь.
+ * <p>
+ * При включённом сжатии новое содержимое перед сохранением сжимается gzip, если MIME-тип и пробный фрагмент
+ * обещают выигрыш. Кодировка и исходный размер записываются в атрибуты inode, поэтому содержимое читается
+ * через {@link #openContent}, а размер — через {@link #contentLength}. Уже сохранённые блобы не перезаписываются:
+ * сжимается только новая копия до того, как на неё появятся ссылки.
+ */
+@Slf4j
+@Service
+public class BlobStore {
+
+    private static final Path BLOBS_ROOT = StoragePath.detect().getPath().resolve(".blobs");
+    private static final Path STAGING_ROOT = BLOBS_ROOT.resolve("staging");
+    private static final Path OWNERS_ROOT = BLOBS_ROOT.resolve("owners");
+    private static final Path ENCODED_MARKER = BLOBS_ROOT.resolve("encoded");
+    private static final String HASH_ATTRIBUTE = "off-chance.sha256";
+    private static final String ENCODING_ATTRIBUTE = "off-chance.encoding";
+    private static final String SIZE_ATTRIBUTE = "off-chance.size";
+    private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final Duration STAGING_TTL = Duration.ofDays(1);
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    public static final String GZIP = "gzip";
+
+    private final boolean dedupRequested;
+    private final StorageProperties.Compression compression;
+    private final CompressedContentDetector compressedContentDetector;
+    private volatile boolean enabled;
+    // Пока не сжат ни один файл, чтение не тратит вызовы на атрибуты кодировки
+    private volatile boolean encodedContentPresent;
+
+    public BlobStore(StorageProperties storageProperties, CompressedContentDetector compressedContentDetector) {
+        this.dedupRequested = storageProperties.getDedup().isEnabled();
+        this.compression = storageProperties.getCompression();
+        this.compressedContentDetector = compressedContentDetector;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(STAGING_ROOT);
+        Files.createDirectories(OWNERS_ROOT);
+        enabled = dedupRequested && supportsHardLinks();
+        encodedContentPresent = Files.exists(ENCODED_MARKER);
+        log.info("Дедупликация содержимого {}, сжатие {}", enabled ? "включена" : "выключена",
+                compression.isEnabled() ? "включено" : "выключено");
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    public Path newStagingFile() throws IOException {
+        return Files.createTempFile(STAGING_ROOT, "upload-", ".tmp");
+    }
+
+    public void store(Path userRoot, InputStream in, Path target) throws IOException {
+        if (!enabled && !compression.isEnabled()) {
+            MessageDigest digest = newDigest();
+            Files.copy(new DigestInputStream(in, digest), target, StandardCopyOption.REPLACE_EXISTING);
+            writeAttribute(target, HASH_ATTRIBUTE, HexFormat.of().formatHex(digest.digest()));
+            return;
+        }
+        Path staged = newStagingFile();
+        try {
+            MessageDigest digest = newDigest();
+            try (DigestInputStream digestIn = new DigestInputStream(in, digest);
+                 OutputStream out = Files.newOutputStream(staged)) {
+                digestIn.transferTo(out);
+            }
+            commitStaged(userRoot, staged, HexFormat.of().formatHex(digest.digest()), target);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    public void commitStaged(Path userRoot, Path staged, String hash, Path target) throws IOException {
+        try {
+            if (!enabled) {
+                moveIntoPlace(staged, hash, target);
+                return;
+            }
+            link(userRoot, staged, hash, target);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    public void adopt(Path userRoot, Path source, Path target) throws IOException {
+        if (!enabled) {
+            moveIntoPlace(source, hashOf(source), target);
+            Files.deleteIfExists(source);
+            return;
+        }
+        commitStaged(userRoot, source, hashOf(source), target);
+    }
+
+    /** Исходный размер блоба, на который пользователь может сослаться по хэшу; пусто, если такого блоба нет. */
+    public OptionalLong linkableContentLength(Path userRoot, String hash) throws IOException {
+        if (!isLinkable(userRoot, hash)) {
+            return OptionalLong.empty();
+        }
+        try {
+            return OptionalLong.of(contentLength(blobPath(hash)));
+        } catch (NoSuchFileException e) {
+            return OptionalLong.empty();
+        }
+    }
+
+    public boolean linkExisting(Path userRoot, String hash, Path target) throws IOException {
+        if (!isLinkable(userRoot, hash)) {
+            return false;
+        }
+        try {
+            replaceWithLink(target, blobPath(hash));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    public void delete(Path file) throws IOException {
+        Optional<String> hash = enabled ? readHash(file) : Optional.empty();
+        Files.delete(file);
+        if (hash.isPresent()) {
+            collectIfUnreferenced(blobPath(hash.get()));
+        }
+    }
+
+    public void forgetOwner(String userId) throws IOException {
+        FileUtils.deleteRecursively(OWNERS_ROOT.resolve(userId));
+    }
+
+    /** SHA-256 содержимого, сохранённый при записи; пусто для файлов, записанных до его появления или в обход хранилища. */
+    public Optional<String> readHash(Path file) {
+        return readAttribute(file, HASH_ATTRIBUTE);
+    }
+
+    /** Кодировка, в которой файл лежит на диске; пусто для несжатых файлов. */
+    public Optional<String> readEncoding(Path file) {
+        return encodedContentPresent ? readAttribute(file, ENCODING_ATTRIBUTE) : Optional.empty();
+    }
+
+    /** Размер содержимого, которое видит пользователь, — у сжатого файла он больше размера на диске. */
+    public long contentLength(Path file) throws IOException {
+        return contentLength(file, Files.size(file));
+    }
+
+    /** То же по уже прочитанному размеру на диске, чтобы обходы дерева не делали лишний stat. */
+    public long contentLength(Path file, long storedSize) {
+        if (!encodedContentPresent) {
+            return storedSize;
+        }
+        return readAttribute(file, SIZE_ATTRIBUTE).map(Long::parseLong).orElse(storedSize);
+    }
+
+    /** Поток исходного содержимого: сжатые файлы распаковываются на лету. */
+    public InputStream openContent(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (readEncoding(file).isEmpty()) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in, COPY_BUFFER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /** Распакованная копия во временном файле — для чтения с произвольным доступом; удаляет вызывающий. */
+    public Path decodeToStaging(Path file) throws IOException {
+        Path decoded = newStagingFile();
+        try (InputStream in = openContent(file)) {
+            Files.copy(in, decoded, StandardCopyOption.REPLACE_EXISTING);
+            return decoded;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(decoded);
+            throw e;
+        }
+    }
+
+    @Scheduled(cron = "0 30 3 * * *")
+    public void collectGarbage() {
+        if (!enabled) {
+            return;
+        }
+        Instant stagingThreshold = Instant.now().minus(STAGING_TTL);
+        try (Stream<Path> paths = Files.walk(BLOBS_ROOT)) {
+            paths.filter(Files::isRegularFile).filter(path -> !path.equals(ENCODED_MARKER)).forEach(path -> {
+                try {
+                    if (path.startsWith(STAGING_ROOT)) {
+                        if (Files.getLastModifiedTime(path).toInstant().isBefore(stagingThreshold)) {
+                            Files.deleteIfExists(path);
+                        }
+                    } else if (path.startsWith(OWNERS_ROOT)) {
+                        if (!Files.exists(blobPath(path.getFileName().toString()))) {
+                            Files.deleteIfExists(path);
+                        }
+                    } else {
+                        collectIfUnreferenced(path);
+                    }
+                } catch (IOException e) {
+                    log.warn("Не удалось обработать {} при сборке мусора", path, e);
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Ошибка при сборке мусора хранилища блобов", e);
+        }
+    }
+
+    private void link(Path userRoot, Path staged, String hash, Path target) throws IOException {
+        Path blob = blobPath(hash);
+        Files.createDirectories(blob.getParent());
+        // Сжимается только новое содержимое: при совпадении с существующим блобом работа не нужна
+        Path encoded = Files.exists(blob) ? null : encode(staged, hash);
+        Path source = encoded != null ? encoded : staged;
+        if (encoded == null) {
+            writeAttribute(staged, HASH_ATTRIBUTE, hash);
+        }
+
+        try {
+            while (true) {
+                if (Files.exists(blob)) {
+                    try {
+                        replaceWithLink(target, blob);
+                        break;
+                    } catch (NoSuchFileException e) {
+                        log.debug("Блоб {} удалён сборщиком во время загрузки, сохраняем заново", hash);
+                    }
+                }
+                try {
+                    Files.createLink(blob, source);
+                } catch (FileAlreadyExistsException e) {
+                    continue;
+                }
+                replaceWithLink(target, blob);
+                break;
+            }
+        } finally {
+            if (encoded != null) {
+                Files.deleteIfExists(encoded);
+            }
+        }
+
+        Path marker = ownerMarker(userRoot, hash);
+        Files.createDirectories(marker.getParent());
+        try {
+            Files.createFile(marker);
+        } catch (FileAlreadyExistsException ignored) {
+            // содержимое уже числится за пользователем
+        }
+    }
+
+    // Без дедупликации: файл перемещается в целевой путь, при выгоде — в сжатом виде
+    private void moveIntoPlace(Path raw, String hash, Path target) throws IOException {
+        Path encoded = encode(raw, hash);
+        if (encoded == null) {
+            writeAttribute(raw, HASH_ATTRIBUTE, hash);
+        }
+        Files.move(encoded != null ? encoded : raw, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Сжатая копия со всеми атрибутами или null, если сжатие выключено либо не даёт выигрыша. */
+    private Path encode(Path raw, String hash) throws IOException {
+        if (!compression.isEnabled()) {
+            return null;
+        }
+        long rawSize = Files.size(raw);
+        if (rawSize < compression.getMinFileSize().toBytes() || compressedContentDetector.isCompressed(raw)
+                || sampleRatio(raw) > compression.getMaxRatio()) {
+            return null;
+        }
+        Path encoded = newStagingFile();
+        try {
+            try (InputStream in = Files.newInputStream(raw);
+                 OutputStream out = new LeveledGzipOutputStream(Files.newOutputStream(encoded), compression.getLevel())) {
+                in.transferTo(out);
+            }
+            long encodedSize = Files.size(encoded);
+            // Без атрибута кодировки сжатый файл нельзя отличить от обычного, поэтому без xattr он не сохраняется
+            if (encodedSize > rawSize * compression.getMaxRatio()
+                    || !writeAttribute(encoded, ENCODING_ATTRIBUTE, GZIP)
+                    || !writeAttribute(encoded, SIZE_ATTRIBUTE, Long.toString(rawSize))
+                    || !writeAttribute(encoded, HASH_ATTRIBUTE, hash)) {
+                Files.deleteIfExists(encoded);
+                return null;
+            }
+            markEncodedContentPresent();
+            log.debug("Содержимое {} сжато: {} → {} байт", hash, rawSize, encodedSize);
+            return encoded;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(encoded);
+            throw e;
+        }
+    }
+
+    private double sampleRatio(Path raw) throws IOException {
+        byte[] sample;
+        try (InputStream in = Files.newInputStream(raw)) {
+            sample = in.readNBytes((int) compression.getSampleSize().toBytes());
+        }
+        Deflater deflater = new Deflater(compression.getLevel(), true);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] output = new byte[COPY_BUFFER_SIZE];
+            while (!deflater.finished()) {
+                deflater.deflate(output);
+            }
+            return (double) deflater.getBytesWritten() / Math.max(1, sample.length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void markEncodedContentPresent() throws IOException {
+        if (!encodedContentPresent) {
+            try {
+                Files.createFile(ENCODED_MARKER);
+            } catch (FileAlreadyExistsException ignored) {
+                // уже отмечено другим потоком
+            }
+            encodedContentPresent = true;
+        }
+    }
+
+    private void replaceWithLink(Path target, Path blob) throws IOException {
+        if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            delete(target);
+        }
+        Files.createLink(target, blob);
+    }
+
+    private void collectIfUnreferenced(Path blob) throws IOException {
+        try {
+            int links = (Integer) Files.getAttribute(blob, "unix:nlink");
+            if (links <= 1) {
+                Files.deleteIfExists(blob);
+                log.debug("Блоб {} удалён: на него больше нет ссылок", blob.getFileName());
+            }
+        } catch (NoSuchFileException ignored) {
+            // блоб уже удалён
+        }
+    }
+
+    private String hashOf(Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] chunk = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                digest.update(chunk, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static Optional<String> readAttribute(Path file, String name) {
+        try {
+            UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+            if (view == null || !view.list().contains(name)) {
+                return Optional.empty();
+            }
+            ByteBuffer value = ByteBuffer.allocate(view.size(name));
+            view.read(name, value);
+            value.flip();
+            return Optional.of(StandardCharsets.US_ASCII.decode(value).toString());
+        } catch (IOException | UnsupportedOperationException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static boolean writeAttribute(Path file, String name, String value) {
+        try {
+            UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+            if (view != null) {
+                view.write(name, StandardCharsets.US_ASCII.encode(value));
+                return true;
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Расширенные атрибуты недоступны, {} не сохранён в inode {}: {}", name, file, e.getMessage());
+        }
+        return false;
+    }
+
+    private boolean isLinkable(Path userRoot, String hash) {
+        return enabled && HASH_PATTERN.matcher(hash).matches() && Files.exists(ownerMarker(userRoot, hash));
+    }
+
+    private Path blobPath(String hash) {
+        return BLOBS_ROOT.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    private Path ownerMarker(Path userRoot, String hash) {
+        return OWNERS_ROOT.resolve(userRoot.getFileName().toString()).resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private boolean supportsHardLinks() {
+        try {
+            if (!Files.getFileStore(BLOBS_ROOT).supportsFileAttributeView("unix")) {
+                return false;
+            }
+            Path probe = newStagingFile();
+            Path link = probe.resolveSibling(probe.getFileName() + ".link");
+            try {
+                Files.createLink(link, probe);
+                return (Integer) Files.getAttribute(probe, "unix:nlink") == 2;
+            } finally {
+                Files.deleteIfExists(link);
+                Files.deleteIfExists(probe);
+            }
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            log.warn("Жёсткие ссылки не поддерживаются в {}: {}", BLOBS_ROOT, e.getMessage());
+            return false;
+        }
+    }
+
+    private static class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, COPY_BUFFER_SIZE);
+            def.setLevel(level);
+        }
+    }
+}
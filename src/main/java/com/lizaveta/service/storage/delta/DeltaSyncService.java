@@ -0,0 +1,235 @@
+package com.lizaveta.service.storage.delta;
+
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.model.deltaDTO.BlockSignatureDTO;
+import com.lizaveta.model.deltaDTO.DeltaSignatureDTO;
+import com.lizaveta.service.storage.FileService;
+import com.lizaveta.service.storage.blob.BlobStore;
+import com.lizaveta.service.storage.metrics.TransferMetrics;
+import com.lizaveta.service.storage.usage.QuotaExceededException;
+import com.lizaveta.service.storage.usage.StorageUsageService;
+import com.lizaveta.service.storage.util.FileUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Синхронизация изменённых файлов в стиле rsync. Клиент получает подписи блоков текущей версии файла
+ * (слабую скользящую сумму и сильный хэш), находит у себя совпадающие блоки и присылает рецепт новой версии
+ * (big-endian):
+ * <pre>
+ *   0x01 &lt;int blockIndex&gt; &lt;int blockCount&gt;  — скопировать блоки базовой версии
+ *   0x02 &lt;int length&gt; &lt;length байт&gt;           — вставить новые данные
+ *   0x00 &lt;32 байта SHA-256 новой версии&gt;      — конец рецепта
+ * </pre>
+ * Новая версия собирается рядом со старой, и старая остаётся нетронутой.
+ */
+@Slf4j
+@Service
+public class DeltaSyncService {
+
+    private static final byte OP_END = 0x00;
+    private static final byte OP_COPY = 0x01;
+    private static final byte OP_DATA = 0x02;
+    private static final int STRONG_HASH_BYTES = 16;
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    private final FileService fileService;
+    private final BlobStore blobStore;
+    private final TransferMetrics transferMetrics;
+    private final StorageUsageService storageUsageService;
+    private final StorageProperties.Delta properties;
+    private final long maxFileSize;
+
+    public DeltaSyncService(FileService fileService, BlobStore blobStore, TransferMetrics transferMetrics,
+                            StorageUsageService storageUsageService, StorageProperties storageProperties) {
+        this.fileService = fileService;
+        this.blobStore = blobStore;
+        this.transferMetrics = transferMetrics;
+        this.storageUsageService = storageUsageService;
+        this.properties = storageProperties.getDelta();
+        this.maxFileSize = storageProperties.getUpload().getMaxFileSize().toBytes();
+    }
+
+    public DeltaSignatureDTO signature(Path userRoot, String fileId, Integer requestedBlockSize) throws IOException {
+        Path file = resolveFile(userRoot, fileId);
+        int blockSize = resolveBlockSize(requestedBlockSize);
+        MessageDigest digest = BlobStore.newDigest();
+        List<BlockSignatureDTO> blocks = new ArrayList<>();
+
+        try (InputStream in = new BufferedInputStream(blobStore.openContent(file), COPY_BUFFER_SIZE)) {
+            byte[] block = new byte[blockSize];
+            int length;
+            while ((length = in.readNBytes(block, 0, blockSize)) > 0) {
+                digest.update(block, 0, length);
+                byte[] strong = Arrays.copyOf(digest.digest(), STRONG_HASH_BYTES);
+                blocks.add(new BlockSignatureDTO(blocks.size(), weakChecksum(block, length), HexFormat.of().formatHex(strong)));
+            }
+        }
+
+        log.debug("Подписи файла '{}': {} блоков по {} байт", fileId, blocks.size(), blockSize);
+        return new DeltaSignatureDTO(fileId, blobStore.contentLength(file), blockSize, blocks);
+    }
+
+    public String apply(Path userRoot, String baseFileId, int blockSize, String fileName, InputStream recipe) throws IOException {
+        Path base = resolveFile(userRoot, baseFileId);
+        resolveBlockSize(blockSize);
+        String targetName = fileName != null && !fileName.isBlank()
+                ? fileName
+                : FileUtils.stripTimestamp(base.getFileName().toString());
+        String folderId = userRoot.relativize(base.getParent()).toString();
+
+        long started = System.nanoTime();
+        Path staged = blobStore.newStagingFile();
+        // Рецепт ссылается на блоки по смещению, поэтому сжатая базовая версия сначала распаковывается
+        Path decodedBase = blobStore.readEncoding(base).isPresent() ? blobStore.decodeToStaging(base) : null;
+        try {
+            MessageDigest digest = BlobStore.newDigest();
+            byte[] hash;
+            long copied = 0;
+            long inserted = 0;
+            // Одна операция копирования может повторить всю базовую версию, поэтому небольшой рецепт
+            // способен собрать файл любого размера: он ограничивается до записи, а не при сохранении
+            long available = storageUsageService.available(userRoot);
+            try (FileChannel baseChannel = FileChannel.open(decodedBase != null ? decodedBase : base, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(staged, StandardOpenOption.WRITE);
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(recipe, COPY_BUFFER_SIZE))) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+                long baseSize = baseChannel.size();
+
+                while (true) {
+                    byte op = in.readByte();
+                    if (op == OP_END) {
+                        hash = digest.digest();
+                        if (!MessageDigest.isEqual(in.readNBytes(hash.length), hash)) {
+                            throw new IllegalArgumentException("Хэш собранной версии не совпадает с ожидаемым");
+                        }
+                        break;
+                    } else if (op == OP_COPY) {
+                        long offset = (long) in.readInt() * blockSize;
+                        long length = Math.min((long) in.readInt() * blockSize, baseSize - offset);
+                        if (offset < 0 || offset >= baseSize || length <= 0) {
+                            throw new IllegalArgumentException("Ссылка на несуществующие блоки базовой версии");
+                        }
+                        checkAssembledSize(copied + inserted + length, available);
+                        copyFromBase(baseChannel, offset, length, out, digest, buffer);
+                        copied += length;
+                    } else if (op == OP_DATA) {
+                        int length = in.readInt();
+                        if (length < 0) {
+                            throw new IllegalArgumentException("Недопустимая длина данных: " + length);
+                        }
+                        checkAssembledSize(copied + inserted + length, available);
+                        copyFromRecipe(in, length, out, digest, buffer);
+                        inserted += length;
+                    } else {
+                        throw new IllegalArgumentException("Неизвестная операция рецепта: " + op);
+                    }
+                }
+                out.force(false);
+            } catch (EOFException e) {
+                throw new IllegalArgumentException("Рецепт обрывается до завершающей операции");
+            }
+
+            Path target = fileService.resolveUploadTarget(userRoot, targetName, folderId);
+            fileService.storeStaged(userRoot, staged, HexFormat.of().formatHex(hash), target);
+            transferMetrics.recordUpload(TransferMetrics.DELTA, inserted, System.nanoTime() - started);
+            log.debug("Новая версия '{}' собрана по дельте: {} байт из базовой версии, {} байт передано",
+                    baseFileId, copied, inserted);
+            return userRoot.relativize(target).toString();
+        } finally {
+            Files.deleteIfExists(staged);
+            if (decodedBase != null) {
+                Files.deleteIfExists(decodedBase);
+            }
+        }
+    }
+
+    private void checkAssembledSize(long size, long available) {
+        if (size > maxFileSize) {
+            throw new IllegalArgumentException("Собираемая версия превышает максимальный размер файла " + maxFileSize + " байт");
+        }
+        if (size > available) {
+            throw new QuotaExceededException("Превышена квота хранилища: доступно " + available
+                    + " байт, собираемая версия занимает уже " + size);
+        }
+    }
+
+    // Слабая сумма rsync: a = Σx, b = Σ(L - i)·x по модулю 2^16, результат b << 16 | a.
+    // Клиент пересчитывает её при сдвиге окна на байт за O(1)
+    static long weakChecksum(byte[] data, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int x = data[i] & 0xFF;
+            a += x;
+            b += (length - i) * x;
+        }
+        return ((long) (b & 0xFFFF) << 16) | (a & 0xFFFF);
+    }
+
+    private void copyFromBase(FileChannel base, long offset, long length, FileChannel out,
+                              MessageDigest digest, ByteBuffer buffer) throws IOException {
+        long position = offset;
+        long end = offset + length;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int read = base.read(buffer, position);
+            if (read == -1) {
+                throw new IOException("Базовая версия изменилась во время сборки");
+            }
+            position += read;
+            writeAndDigest(buffer, out, digest);
+        }
+    }
+
+    private void copyFromRecipe(DataInputStream in, int length, FileChannel out,
+                                MessageDigest digest, ByteBuffer buffer) throws IOException {
+        byte[] chunk = new byte[Math.min(length, COPY_BUFFER_SIZE)];
+        int remaining = length;
+        while (remaining > 0) {
+            int count = Math.min(remaining, chunk.length);
+            in.readFully(chunk, 0, count);
+            buffer.clear();
+            buffer.put(chunk, 0, count);
+            writeAndDigest(buffer, out, digest);
+            remaining -= count;
+        }
+    }
+
+    private void writeAndDigest(ByteBuffer buffer, FileChannel out, MessageDigest digest) throws IOException {
+        buffer.flip();
+        digest.update(buffer.duplicate());
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private Path resolveFile(Path userRoot, String fileId) throws FileNotFoundException {
+        Path file = FileUtils.resolveSecurePath(userRoot, fileId);
+        if (!Files.isRegularFile(file)) {
+            throw new FileNotFoundException("Файл не найден: " + fileId);
+        }
+        return file;
+    }
+
+    private int resolveBlockSize(Integer requested) {
+        long blockSize = requested != null ? requested : properties.getBlockSize().toBytes();
+        if (blockSize < properties.getMinBlockSize().toBytes() || blockSize > properties.getMaxBlockSize().toBytes()) {
+            throw new IllegalArgumentException("Недопустимый размер блока: " + blockSize);
+        }
+        return (int) blockSize;
+    }
+}
@@ -0,0 +1,23 @@
+package com.lizaveta.service.storage.event;
+
+import java.nio.file.Path;
+
+/**
+ * Изменение в хранилище пользователей: файл или папка появились либо удалены (папка — вместе с содержимым).
+ * Публикуется после того, как изменение уже выполнено на диске.
+ */
+public record StorageChangeEvent(Path path, Kind kind) {
+
+    public enum Kind {
+        CREATED,
+        DELETED
+    }
+
+    public static StorageChangeEvent created(Path path) {
+        return new StorageChangeEvent(path, Kind.CREATED);
+    }
+
+    public static StorageChangeEvent deleted(Path path) {
+        return new StorageChangeEvent(path, Kind.DELETED);
+    }
+}
@@ -0,0 +1,93 @@
+package com.lizaveta.service.storage.io;
+
+import com.lizaveta.config.ExecutionProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Ограничение числа одновременных операций ввода-вывода на каждое файловое хранилище.
+ * Заменяет фиксированный размер пула: задачи могут выполняться на сколь угодно большом числе
+ * (в том числе виртуальных) потоков, а диск обслуживает не больше diskConcurrency из них.
+ */
+@Component
+public class DiskConcurrencyLimiter {
+
+    private final int permits;
+    private final Map<FileStore, Semaphore> semaphores = new ConcurrentHashMap<>();
+
+    public DiskConcurrencyLimiter(ExecutionProperties properties) {
+        this.permits = properties.getDiskConcurrency();
+    }
+
+    public Permit acquire(Path path) throws IOException {
+        Semaphore semaphore = semaphoreFor(path);
+        acquire(semaphore);
+        return semaphore::release;
+    }
+
+    /**
+     * Поток, который берёт разрешение только на время каждого чтения. Для чтений, чередующихся с записью
+     * медленному клиенту: ожидание клиента не занимает разрешение, которое нужно загрузкам на том же диске.
+     */
+    public InputStream limitReads(InputStream in, Path path) throws IOException {
+        Semaphore semaphore = semaphoreFor(path);
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                acquire(semaphore);
+                try {
+                    return super.read();
+                } finally {
+                    semaphore.release();
+                }
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                acquire(semaphore);
+                try {
+                    return super.read(buffer, offset, length);
+                } finally {
+                    semaphore.release();
+                }
+            }
+        };
+    }
+
+    private Semaphore semaphoreFor(Path path) throws IOException {
+        return semaphores.computeIfAbsent(fileStoreOf(path), store -> new Semaphore(permits, true));
+    }
+
+    private static void acquire(Semaphore semaphore) throws InterruptedIOException {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Ожидание доступа к диску прервано");
+        }
+    }
+
+    private static FileStore fileStoreOf(Path path) throws IOException {
+        // Путь назначения может ещё не существовать — берётся ближайший существующий предок
+        Path existing = path.toAbsolutePath();
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        return Files.getFileStore(existing != null ? existing : path.getRoot());
+    }
+
+    public interface Permit extends AutoCloseable {
+        @Override
+        void close();
+    }
+}
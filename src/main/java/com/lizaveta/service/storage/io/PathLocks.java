@@ -0,0 +1,42 @@
+package com.lizaveta.service.storage.io;
+
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Блокировки на отдельные пути. Запись остаётся в таблице, пока блокировку держат или ждут,
+ * поэтому таблица не растёт с числом когда-либо записанных файлов.
+ */
+@Component
+public class PathLocks {
+
+    private final Map<Path, Entry> locks = new ConcurrentHashMap<>();
+
+    public Handle lock(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        Entry entry = locks.compute(key, (k, existing) -> {
+            Entry current = existing != null ? existing : new Entry();
+            current.users++;
+            return current;
+        });
+        entry.lock.lock();
+        return () -> {
+            entry.lock.unlock();
+            locks.computeIfPresent(key, (k, current) -> --current.users == 0 ? null : current);
+        };
+    }
+
+    public interface Handle extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static class Entry {
+        final ReentrantLock lock = new ReentrantLock();
+        int users;
+    }
+}
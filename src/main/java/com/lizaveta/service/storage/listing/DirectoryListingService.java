@@ -0,0 +1,123 @@
+package com.lizaveta.service.storage.listing;
+
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.model.fileDTO.FileEntryDto;
+import com.lizaveta.model.fileDTO.FileListPageDto;
+import com.lizaveta.model.fileDTO.FileType;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tika.Tika;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Постраничный список папки с сортировкой на сервере. Записи папки берутся из {@link DirectoryMetadataCache},
+ * а для страницы отбирается куча из limit + 1 лучших записей после курсора, поэтому размер ответа
+ * не зависит от числа файлов. Курсор — закодированный ключ последней отданной записи, так что страницы
+ * остаются согласованными и при добавлении файлов между запросами. Папки всегда идут перед файлами.
+ */
+@Slf4j
+@Service
+public class DirectoryListingService {
+
+    private static final String CURSOR_SEPARATOR = "\n";
+
+    private final StorageProperties.Listing properties;
+    private final DirectoryMetadataCache metadataCache;
+    private final Tika tika = new Tika();
+
+    public DirectoryListingService(StorageProperties storageProperties, DirectoryMetadataCache metadataCache) {
+        this.properties = storageProperties.getListing();
+        this.metadataCache = metadataCache;
+    }
+
+    public FileListPageDto listPage(Path userRoot, Path directory, ListingSort sort, boolean descending,
+                                    Integer requestedLimit, String cursor, boolean details) throws IOException {
+        int limit = requestedLimit != null ? requestedLimit : properties.getDefaultPageSize();
+        if (limit <= 0 || limit > properties.getMaxPageSize()) {
+            throw new IllegalArgumentException("Недопустимый размер страницы: " + limit);
+        }
+        if (!Files.isDirectory(directory)) {
+            return new FileListPageDto(List.of(), null, 0);
+        }
+
+        Comparator<Item> order = comparator(sort, descending);
+        Item after = cursor != null && !cursor.isEmpty() ? decodeCursor(cursor, sort, descending) : null;
+        PriorityQueue<Item> best = new PriorityQueue<>(order.reversed());
+        long total = 0;
+
+        for (DirectoryMetadataCache.EntryMetadata entry : metadataCache.list(directory)) {
+            total++;
+            Item item = new Item(entry.name(), entry.directory(), entry.size(), entry.modified());
+            if (after != null && order.compare(item, after) <= 0) {
+                continue;
+            }
+            if (best.size() <= limit) {
+                best.add(item);
+            } else if (order.compare(item, best.peek()) < 0) {
+                best.poll();
+                best.add(item);
+            }
+        }
+
+        List<Item> items = new ArrayList<>(best);
+        items.sort(order);
+        String nextCursor = null;
+        if (items.size() > limit) {
+            items = items.subList(0, limit);
+            nextCursor = encodeCursor(items.get(limit - 1), sort, descending);
+        }
+
+        List<FileEntryDto> entries = new ArrayList<>(items.size());
+        for (Item item : items) {
+            Path path = directory.resolve(item.name());
+            FileType type = item.directory() ? FileType.FOLDER : FileType.FILE;
+            entries.add(details
+                    ? new FileEntryDto(userRoot.relativize(path).toString(), item.name(), type,
+                            item.directory() ? null : item.size(), item.modified(),
+                            item.directory() ? null : tika.detect(item.name()))
+                    : new FileEntryDto(userRoot.relativize(path).toString(), item.name(), type, null, null, null));
+        }
+        log.debug("Страница папки {}: {} из {} записей", directory, entries.size(), total);
+        return new FileListPageDto(entries, nextCursor, total);
+    }
+
+    private static Comparator<Item> comparator(ListingSort sort, boolean descending) {
+        Comparator<Item> byKey = switch (sort) {
+            case NAME -> Comparator.comparing(Item::name);
+            case SIZE -> Comparator.comparingLong(Item::size);
+            case MODIFIED -> Comparator.comparingLong(Item::modified);
+        };
+        if (descending) {
+            byKey = byKey.reversed();
+        }
+        return Comparator.comparing((Item item) -> !item.directory())
+                .thenComparing(byKey)
+                .thenComparing(Item::name);
+    }
+
+    private static String encodeCursor(Item item, ListingSort sort, boolean descending) {
+        String value = String.join(CURSOR_SEPARATOR, sort.name(), Boolean.toString(descending),
+                Boolean.toString(item.directory()), Long.toString(item.size()), Long.toString(item.modified()), item.name());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Item decodeCursor(String cursor, ListingSort sort, boolean descending) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8)
+                    .split(CURSOR_SEPARATOR, 6);
+            if (parts.length != 6 || !parts[0].equals(sort.name()) || Boolean.parseBoolean(parts[1]) != descending) {
+                throw new IllegalArgumentException("Курсор не соответствует сортировке");
+            }
+            return new Item(parts[5], Boolean.parseBoolean(parts[2]), Long.parseLong(parts[3]), Long.parseLong(parts[4]));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Некорректный курсор: " + e.getMessage());
+        }
+    }
+
+    private record Item(String name, boolean directory, long size, long modified) {
+    }
+}
@@ -0,0 +1,199 @@
+package com.lizaveta.service.storage.listing;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.service.storage.blob.BlobStore;
+import com.lizaveta.service.storage.event.StorageChangeEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LRU-кэш содержимого папок вместе с атрибутами записей. Папка кэшируется только после того,
+ * как на неё поставлено наблюдение WatchService, поэтому изменения в обход приложения сбрасывают запись;
+ * собственные изменения сбрасываются сразу через {@link StorageChangeEvent}. Время жизни записи
+ * ограничивает устаревание на случай пропущенного события.
+ */
+@Slf4j
+@Component
+public class DirectoryMetadataCache implements MeterBinder {
+
+    public record EntryMetadata(String name, boolean directory, long size, long modified) {
+    }
+
+    private final StorageProperties.MetadataCache properties;
+    private final BlobStore blobStore;
+    private final Cache<Path, List<EntryMetadata>> cache;
+    private final Map<Path, WatchKey> watchKeys = new ConcurrentHashMap<>();
+    private WatchService watchService;
+
+    public DirectoryMetadataCache(StorageProperties storageProperties, BlobStore blobStore) {
+        this.properties = storageProperties.getMetadataCache();
+        this.blobStore = blobStore;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(properties.getMaxEntries())
+                .weigher((Path directory, List<EntryMetadata> entries) -> entries.size() + 1)
+                .expireAfterWrite(properties.getTtl())
+                .evictionListener((Path directory, List<EntryMetadata> entries, RemovalCause cause) -> unwatch(directory))
+                .recordStats()
+                .build();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            log.warn("WatchService недоступен, кэш метаданных папок отключён: {}", e.getMessage());
+            return;
+        }
+        Thread watcher = new Thread(this::processWatchEvents, "DirectoryWatcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    public List<EntryMetadata> list(Path directory) throws IOException {
+        if (watchService == null || !watch(directory)) {
+            return read(directory);
+        }
+        try {
+            return cache.get(directory, key -> {
+                try {
+                    return read(key);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long cachedDirectories() {
+        return cache.estimatedSize();
+    }
+
+    public int watchedDirectories() {
+        return watchKeys.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "directory-metadata");
+        Gauge.builder("offchance.directory.watched", watchKeys, Map::size)
+                .description("Папки под наблюдением WatchService")
+                .register(registry);
+    }
+
+    @EventListener
+    public void onStorageChange(StorageChangeEvent event) {
+        Path path = event.path().normalize();
+        cache.invalidate(path);
+        if (path.getParent() != null) {
+            cache.invalidate(path.getParent());
+        }
+        if (event.kind() == StorageChangeEvent.Kind.DELETED) {
+            cache.asMap().keySet().removeIf(directory -> directory.startsWith(path));
+        }
+    }
+
+    private boolean watch(Path directory) {
+        if (watchKeys.containsKey(directory)) {
+            return true;
+        }
+        if (watchKeys.size() >= properties.getMaxWatchedDirectories()) {
+            return false;
+        }
+        try {
+            WatchKey key = directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            watchKeys.put(directory, key);
+            return true;
+        } catch (IOException | ClosedWatchServiceException e) {
+            log.debug("Не удалось наблюдать за папкой {}: {}", directory, e.getMessage());
+            return false;
+        }
+    }
+
+    private void unwatch(Path directory) {
+        WatchKey key = watchKeys.remove(directory);
+        if (key != null) {
+            key.cancel();
+        }
+    }
+
+    private void processWatchEvents() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                boolean overflow = key.pollEvents().stream()
+                        .anyMatch(event -> event.kind() == StandardWatchEventKinds.OVERFLOW);
+                if (overflow) {
+                    cache.invalidateAll();
+                } else {
+                    cache.invalidate(directory);
+                }
+                if (!key.reset()) {
+                    watchKeys.remove(directory, key);
+                    cache.invalidate(directory);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            log.debug("Наблюдение за папками остановлено");
+        }
+    }
+
+    private List<EntryMetadata> read(Path directory) throws IOException {
+        List<EntryMetadata> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                try {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    entries.add(new EntryMetadata(path.getFileName().toString(), attributes.isDirectory(),
+                            attributes.isDirectory() ? 0 : blobStore.contentLength(path, attributes.size()),
+                            attributes.lastModifiedTime().toMillis()));
+                } catch (NoSuchFileException e) {
+                    // запись удалена во время чтения папки
+                }
+            }
+        }
+        return List.copyOf(entries);
+    }
+}
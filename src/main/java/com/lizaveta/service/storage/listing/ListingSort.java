@@ -0,0 +1,15 @@
+package com.lizaveta.service.storage.listing;
+
+public enum ListingSort {
+    NAME,
+    SIZE,
+    MODIFIED;
+
+    public static ListingSort parse(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Недопустимое поле сортировки: " + value);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.lizaveta.service.storage.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Метрики передач: объём и скорость загрузок по способу передачи, объём отдачи и время сборки архивов.
+ * Гистограммы публикуются с корзинами, поэтому перцентили считаются на стороне Prometheus.
+ */
+@Component
+public class TransferMetrics {
+
+    public static final String MULTIPART = "multipart";
+    public static final String FOLDER = "folder";
+    public static final String STREAM = "stream";
+    public static final String SESSION = "session";
+    public static final String DELTA = "delta";
+
+    public static final String FULL = "full";
+    public static final String RANGE = "range";
+    public static final String MULTIRANGE = "multirange";
+    public static final String ZIP = "zip";
+
+    private static final double MIN_THROUGHPUT = 1024;
+
+    private final MeterRegistry registry;
+    private final Timer zipBuild;
+
+    public TransferMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.zipBuild = Timer.builder("offchance.zip.build")
+                .description("Время сборки и отдачи архива папки")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public void recordUpload(String type, long bytes, long elapsedNanos) {
+        DistributionSummary.builder("offchance.upload.bytes")
+                .description("Размер загрузки")
+                .baseUnit("bytes")
+                .tag("type", type)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(bytes);
+        if (elapsedNanos > 0 && bytes > 0) {
+            DistributionSummary.builder("offchance.upload.throughput")
+                    .description("Скорость загрузки")
+                    .baseUnit("bytes.per.second")
+                    .tag("type", type)
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(MIN_THROUGHPUT)
+                    .register(registry)
+                    .record(bytes * 1e9 / elapsedNanos);
+        }
+    }
+
+    public void recordDownload(String type, long bytes) {
+        DistributionSummary.builder("offchance.download.bytes")
+                .description("Объём отдачи")
+                .baseUnit("bytes")
+                .tag("type", type)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(bytes);
+    }
+
+    public void recordZip(long bytes, long elapsedNanos) {
+        zipBuild.record(elapsedNanos, TimeUnit.NANOSECONDS);
+        recordDownload(ZIP, bytes);
+    }
+}
@@ -0,0 +1,455 @@
+package com.lizaveta.service.storage.search;
+
+import com.lizaveta.config.StoragePath;
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.model.fileDTO.ContentSearchResultDto;
+import com.lizaveta.service.storage.blob.BlobStore;
+import com.lizaveta.service.storage.event.StorageChangeEvent;
+import com.lizaveta.service.storage.util.FileUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.QueryBuilder;
+import org.apache.tika.Tika;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Полнотекстовый поиск по содержимому документов. Текст извлекается Tika в фоновом пуле ограниченного размера,
+ * поэтому загрузка файлов не ждёт индексации, и складывается в индекс Lucene на пользователя (.index/&lt;userId&gt;/content).
+ * Для каждого файла запоминаются время изменения и размер: повторно извлекается только то, что изменилось.
+ * Задачи, не поместившиеся в очередь, подбираются ежедневной сверкой с диском.
+ */
+@Slf4j
+@Service
+public class ContentIndexService implements MeterBinder {
+
+    private static final Path GLOBAL_STORAGE_ROOT = StoragePath.detect().getPath();
+    private static final Path INDEX_ROOT = GLOBAL_STORAGE_ROOT.resolve(".index");
+    private static final String CONTENT_DIRECTORY = "content";
+    private static final String PATH_FIELD = "path";
+    private static final String NAME_FIELD = "name";
+    private static final String MODIFIED_FIELD = "modified";
+    private static final String SIZE_FIELD = "size";
+    private static final String CONTENT_FIELD = "content";
+    private static final List<String> INDEXABLE_TYPES = List.of(
+            "text/",
+            "application/pdf",
+            "application/rtf",
+            "application/xml",
+            "application/json",
+            "application/msword",
+            "application/vnd.ms-",
+            "application/vnd.openxmlformats-officedocument",
+            "application/vnd.oasis.opendocument",
+            "application/x-tika-ooxml",
+            "application/x-tika-msoffice"
+    );
+
+    private final StorageProperties.ContentSearch properties;
+    private final BlobStore blobStore;
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final Tika tika = new Tika();
+    private final Map<String, UserIndex> indexes = new ConcurrentHashMap<>();
+    private final Set<Path> pending = ConcurrentHashMap.newKeySet();
+    private final ThreadPoolExecutor extractor;
+    // Места в очереди извлечения: занимаются до отправки задачи и освобождаются по её завершении,
+    // поэтому execute отказывает только после остановки пула
+    private final Semaphore queueSlots;
+    // Сверка ждёт места в очереди извлечения часами, поэтому идёт в своём потоке, а не в общем потоке @Scheduled
+    private final ExecutorService reconciler = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ContentReconciler");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private final AtomicBoolean reconciling = new AtomicBoolean();
+
+    public ContentIndexService(StorageProperties storageProperties, BlobStore blobStore) {
+        this.properties = storageProperties.getContentSearch();
+        this.blobStore = blobStore;
+        this.tika.setMaxStringLength(properties.getMaxCharacters());
+        AtomicInteger counter = new AtomicInteger();
+        this.extractor = new ThreadPoolExecutor(properties.getThreads(), properties.getThreads(),
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(properties.getQueueCapacity()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "ContentIndexer-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+        this.extractor.prestartAllCoreThreads();
+        this.queueSlots = new Semaphore(properties.getQueueCapacity());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new ExecutorServiceMetrics(extractor, "content-indexer", Tags.empty()).bindTo(registry);
+    }
+
+    public List<ContentSearchResultDto> search(Path userRoot, String queryText) throws IOException {
+        if (!properties.isEnabled()) {
+            return List.of();
+        }
+        Query query = new QueryBuilder(analyzer).createBooleanQuery(CONTENT_FIELD, queryText, BooleanClause.Occur.SHOULD);
+        if (query == null) {
+            return List.of();
+        }
+        UserIndex index = getIndex(userRoot);
+        index.searcherManager.maybeRefresh();
+        IndexSearcher searcher = index.searcherManager.acquire();
+        try {
+            TopDocs top = searcher.search(query, properties.getMaxResults());
+            StoredFields storedFields = searcher.storedFields();
+            List<ContentSearchResultDto> results = new ArrayList<>();
+            for (ScoreDoc hit : top.scoreDocs) {
+                Document document = storedFields.document(hit.doc);
+                results.add(new ContentSearchResultDto(document.get(PATH_FIELD), document.get(NAME_FIELD), hit.score));
+            }
+            return results;
+        } finally {
+            index.searcherManager.release(searcher);
+        }
+    }
+
+    @EventListener
+    public void onStorageChange(StorageChangeEvent event) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        Path path = event.path().normalize();
+        Path userRoot = userRootOf(path);
+        if (userRoot == null) {
+            return;
+        }
+        try {
+            if (event.kind() == StorageChangeEvent.Kind.DELETED) {
+                if (path.equals(userRoot)) {
+                    dropIndex(userRoot);
+                } else {
+                    UserIndex index = getIndex(userRoot);
+                    String relative = userRoot.relativize(path).toString();
+                    index.writer.deleteDocuments(new Term(PATH_FIELD, relative));
+                    index.writer.deleteDocuments(new PrefixQuery(new Term(PATH_FIELD, relative + path.getFileSystem().getSeparator())));
+                }
+            } else if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)) {
+                enqueue(userRoot, path);
+            } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS) && !path.equals(userRoot)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    files.filter(Files::isRegularFile).forEach(file -> enqueue(userRoot, file));
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Не удалось обновить индекс содержимого для {}: {}", path, e.getMessage());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileOnStartup() {
+        reconcileAll();
+    }
+
+    @Scheduled(cron = "0 0 4 * * *")
+    public void reconcileAll() {
+        if (!properties.isEnabled() || !Files.isDirectory(GLOBAL_STORAGE_ROOT)) {
+            return;
+        }
+        if (!reconciling.compareAndSet(false, true)) {
+            log.info("Предыдущая сверка индекса содержимого ещё не завершена, запуск пропущен");
+            return;
+        }
+        try {
+            reconciler.execute(() -> {
+                try {
+                    reconcileUsers();
+                } finally {
+                    reconciling.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            reconciling.set(false);
+        }
+    }
+
+    private void reconcileUsers() {
+        try (Stream<Path> users = Files.list(GLOBAL_STORAGE_ROOT)) {
+            users.filter(Files::isDirectory)
+                    .filter(path -> !path.getFileName().toString().startsWith("."))
+                    .forEach(this::reconcile);
+        } catch (IOException e) {
+            log.error("Ошибка при сверке индекса содержимого", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "PT30S")
+    public void commit() {
+        indexes.forEach((userId, index) -> {
+            try {
+                if (index.writer.hasUncommittedChanges()) {
+                    index.writer.commit();
+                }
+            } catch (IOException | AlreadyClosedException e) {
+                log.warn("Не удалось сохранить индекс содержимого пользователя {}", userId, e);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reconciler.shutdownNow();
+        extractor.shutdownNow();
+        indexes.values().forEach(UserIndex::close);
+        indexes.clear();
+    }
+
+    // Ставит в очередь файлы, которых нет в индексе или которые изменились, и убирает записи об удалённых
+    private void reconcile(Path userRoot) {
+        try {
+            UserIndex index = getIndex(userRoot);
+            Map<String, long[]> indexed = new HashMap<>();
+            index.searcherManager.maybeRefreshBlocking();
+            IndexSearcher searcher = index.searcherManager.acquire();
+            try {
+                StoredFields storedFields = searcher.storedFields();
+                for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+                    Bits liveDocs = leaf.reader().getLiveDocs();
+                    for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+                        if (liveDocs == null || liveDocs.get(doc)) {
+                            Document document = storedFields.document(leaf.docBase + doc);
+                            indexed.put(document.get(PATH_FIELD), new long[]{
+                                    document.getField(MODIFIED_FIELD).numericValue().longValue(),
+                                    document.getField(SIZE_FIELD).numericValue().longValue()});
+                        }
+                    }
+                }
+            } finally {
+                index.searcherManager.release(searcher);
+            }
+
+            AtomicInteger queued = new AtomicInteger();
+            Files.walkFileTree(userRoot, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return FileVisitResult.TERMINATE;
+                    }
+                    long[] known = indexed.remove(userRoot.relativize(file).toString());
+                    if (attrs.isRegularFile() && (known == null
+                            || known[0] != attrs.lastModifiedTime().toMillis() || known[1] != attrs.size())) {
+                        enqueueBlocking(userRoot, file);
+                        queued.incrementAndGet();
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            if (Thread.currentThread().isInterrupted()) {
+                // Обход прерван остановкой: непосещённые файлы нельзя считать удалёнными
+                return;
+            }
+            for (String removed : indexed.keySet()) {
+                index.writer.deleteDocuments(new Term(PATH_FIELD, removed));
+            }
+            log.info("Сверка индекса содержимого {}: в очередь {}, удалено {}",
+                    userRoot.getFileName(), queued.get(), indexed.size());
+        } catch (IOException | AlreadyClosedException e) {
+            log.warn("Не удалось сверить индекс содержимого {}: {}", userRoot, e.getMessage());
+        }
+    }
+
+    private void enqueue(Path userRoot, Path file) {
+        if (!pending.add(file)) {
+            return;
+        }
+        if (!queueSlots.tryAcquire()) {
+            pending.remove(file);
+            log.warn("Очередь индексации содержимого заполнена, файл {} будет проиндексирован при сверке", file);
+            return;
+        }
+        submit(userRoot, file);
+    }
+
+    // Сверка идёт в своём фоновом потоке, поэтому при заполненной очереди она ждёт места, а не теряет задачи
+    private void enqueueBlocking(Path userRoot, Path file) {
+        if (!pending.add(file)) {
+            return;
+        }
+        try {
+            queueSlots.acquire();
+        } catch (InterruptedException e) {
+            pending.remove(file);
+            Thread.currentThread().interrupt();
+            return;
+        }
+        submit(userRoot, file);
+    }
+
+    private void submit(Path userRoot, Path file) {
+        try {
+            extractor.execute(indexTask(userRoot, file));
+        } catch (RejectedExecutionException e) {
+            queueSlots.release();
+            pending.remove(file);
+            log.debug("Индексация остановлена, файл {} пропущен", file);
+        }
+    }
+
+    private Runnable indexTask(Path userRoot, Path file) {
+        return () -> {
+            try {
+                pending.remove(file);
+                indexFile(userRoot, file);
+            } finally {
+                queueSlots.release();
+            }
+        };
+    }
+
+    private void indexFile(Path userRoot, Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (!attributes.isRegularFile()) {
+                return;
+            }
+            String relative = userRoot.relativize(file).toString();
+            Document document = new Document();
+            document.add(new StringField(PATH_FIELD, relative, Field.Store.YES));
+            document.add(new StoredField(NAME_FIELD, file.getFileName().toString()));
+            document.add(new StoredField(MODIFIED_FIELD, attributes.lastModifiedTime().toMillis()));
+            document.add(new StoredField(SIZE_FIELD, attributes.size()));
+
+            String text = extractText(file, attributes.size());
+            if (text != null && !text.isBlank()) {
+                document.add(new TextField(CONTENT_FIELD, text, Field.Store.NO));
+            }
+            // Документ без текста тоже сохраняется, чтобы сверка не извлекала файл повторно
+            getIndex(userRoot).writer.updateDocument(new Term(PATH_FIELD, relative), document);
+            log.debug("Проиндексировано содержимое {}: {} символов", relative, text != null ? text.length() : 0);
+        } catch (NoSuchFileException e) {
+            log.debug("Файл {} удалён до индексации", file);
+        } catch (IOException | AlreadyClosedException e) {
+            log.warn("Не удалось проиндексировать содержимое {}: {}", file, e.getMessage());
+        }
+    }
+
+    private String extractText(Path file, long storedSize) {
+        boolean encoded = blobStore.readEncoding(file).isPresent();
+        long size = encoded ? blobStore.contentLength(file, storedSize) : storedSize;
+        if (size == 0 || size > properties.getMaxFileSize().toBytes()) {
+            return null;
+        }
+        try {
+            if (encoded) {
+                return extractDecoded(file);
+            }
+            String mediaType = tika.detect(file);
+            if (INDEXABLE_TYPES.stream().noneMatch(mediaType::startsWith)) {
+                return null;
+            }
+            return tika.parseToString(file);
+        } catch (IOException | TikaException | RuntimeException | LinkageError e) {
+            log.debug("Не удалось извлечь текст из {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    // Сжатый при хранении файл разбирается из распакованного потока, тип определяется по содержимому и имени
+    private String extractDecoded(Path file) throws IOException, TikaException {
+        Metadata metadata = new Metadata();
+        metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, file.getFileName().toString());
+        try (TikaInputStream in = TikaInputStream.get(blobStore.openContent(file))) {
+            String mediaType = tika.detect(in, metadata);
+            if (INDEXABLE_TYPES.stream().noneMatch(mediaType::startsWith)) {
+                return null;
+            }
+            return tika.parseToString(in, metadata);
+        }
+    }
+
+    private UserIndex getIndex(Path userRoot) throws IOException {
+        String userId = userRoot.getFileName().toString();
+        try {
+            return indexes.computeIfAbsent(userId, key -> {
+                try {
+                    return new UserIndex(INDEX_ROOT.resolve(key).resolve(CONTENT_DIRECTORY), analyzer);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void dropIndex(Path userRoot) throws IOException {
+        UserIndex index = indexes.remove(userRoot.getFileName().toString());
+        if (index != null) {
+            index.close();
+        }
+        FileUtils.deleteRecursively(INDEX_ROOT.resolve(userRoot.getFileName().toString()).resolve(CONTENT_DIRECTORY));
+    }
+
+    private static Path userRootOf(Path path) {
+        if (!path.startsWith(GLOBAL_STORAGE_ROOT) || path.equals(GLOBAL_STORAGE_ROOT)) {
+            return null;
+        }
+        String userId = GLOBAL_STORAGE_ROOT.relativize(path).getName(0).toString();
+        return userId.startsWith(".") ? null : GLOBAL_STORAGE_ROOT.resolve(userId);
+    }
+
+    private static class UserIndex {
+        private final FSDirectory directory;
+        private final IndexWriter writer;
+        private final SearcherManager searcherManager;
+
+        UserIndex(Path path, Analyzer analyzer) throws IOException {
+            Files.createDirectories(path);
+            this.directory = FSDirectory.open(path);
+            this.writer = new IndexWriter(directory, new IndexWriterConfig(analyzer)
+                    .setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+            this.searcherManager = new SearcherManager(writer, null);
+        }
+
+        void close() {
+            try {
+                searcherManager.close();
+                writer.close();
+                directory.close();
+            } catch (IOException e) {
+                log.warn("Ошибка при закрытии индекса содержимого", e);
+            }
+        }
+    }
+}
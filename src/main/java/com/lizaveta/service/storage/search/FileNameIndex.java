@@ -0,0 +1,238 @@
+package com.lizaveta.service.storage.search;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Индекс имён файлов одного пользователя: триграммы имени в нижнем регистре → отсортированные списки номеров записей.
+ * Поиск подстроки пересекает списки триграмм запроса и проверяет кандидатов точным сравнением,
+ * поэтому результат совпадает с {@code name.contains(query)}. Удалённые записи остаются в списках
+ * до ближайшего уплотнения. Пути хранятся относительно корня пользователя; корень — запись с пустым путём.
+ */
+class FileNameIndex {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String SEPARATOR = FileSystems.getDefault().getSeparator();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, Integer> ids = new TreeMap<>();
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<Long, IntList> postings = new HashMap<>();
+    private int removedCount;
+    private boolean dirty;
+    boolean loaded;
+
+    ReadWriteLock getLock() {
+        return lock;
+    }
+
+    boolean isDirty() {
+        return dirty;
+    }
+
+    void markClean() {
+        dirty = false;
+    }
+
+    boolean contains(String path) {
+        return ids.containsKey(path);
+    }
+
+    int size() {
+        return ids.size();
+    }
+
+    void put(String path, boolean directory, long modified) {
+        Integer existing = ids.get(path);
+        if (existing != null) {
+            entries.get(existing).modified = modified;
+        } else {
+            int id = entries.size();
+            Entry entry = new Entry(path, directory, modified);
+            entries.add(entry);
+            ids.put(path, id);
+            for (long trigram : trigrams(entry.name.toLowerCase(Locale.ROOT))) {
+                postings.computeIfAbsent(trigram, key -> new IntList()).add(id);
+            }
+        }
+        dirty = true;
+    }
+
+    void remove(String path) {
+        List<String> removed = new ArrayList<>(descendants(path).keySet());
+        if (ids.containsKey(path)) {
+            removed.add(path);
+        }
+        for (String removedPath : removed) {
+            entries.set(ids.remove(removedPath), null);
+            removedCount++;
+        }
+        if (!removed.isEmpty()) {
+            dirty = true;
+        }
+        if (removedCount > 1024 && removedCount > entries.size() / 2) {
+            compact();
+        }
+    }
+
+    Entry get(String path) {
+        Integer id = ids.get(path);
+        return id != null ? entries.get(id) : null;
+    }
+
+    List<Entry> directories() {
+        return entries.stream().filter(entry -> entry != null && entry.directory).toList();
+    }
+
+    /** Прямые потомки папки: имя → запись. */
+    Map<String, Entry> children(String path) {
+        Map<String, Entry> children = new HashMap<>();
+        String prefix = path.isEmpty() ? "" : path + SEPARATOR;
+        for (Map.Entry<String, Integer> child : descendants(path).entrySet()) {
+            String rest = child.getKey().substring(prefix.length());
+            if (!rest.contains(SEPARATOR)) {
+                children.put(rest, entries.get(child.getValue()));
+            }
+        }
+        return children;
+    }
+
+    List<Entry> search(String query) {
+        List<Entry> result = new ArrayList<>();
+        long[] queryTrigrams = trigrams(query.toLowerCase(Locale.ROOT));
+        if (queryTrigrams.length == 0) {
+            for (Entry entry : entries) {
+                if (entry != null && !entry.path.isEmpty() && entry.name.contains(query)) {
+                    result.add(entry);
+                }
+            }
+        } else {
+            for (int id : intersect(queryTrigrams)) {
+                Entry entry = entries.get(id);
+                if (entry != null && entry.name.contains(query)) {
+                    result.add(entry);
+                }
+            }
+        }
+        result.sort(Comparator.comparing(entry -> entry.path));
+        return result;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(ids.size());
+        for (Integer id : ids.values()) {
+            Entry entry = entries.get(id);
+            out.writeUTF(entry.path);
+            out.writeBoolean(entry.directory);
+            out.writeLong(entry.modified);
+        }
+    }
+
+    void readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Неподдерживаемая версия индекса имён");
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            put(in.readUTF(), in.readBoolean(), in.readLong());
+        }
+        dirty = false;
+    }
+
+    private SortedMap<String, Integer> descendants(String path) {
+        if (path.isEmpty()) {
+            return ids.tailMap("", false);
+        }
+        String prefix = path + SEPARATOR;
+        return ids.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    private int[] intersect(long[] queryTrigrams) {
+        IntList[] lists = new IntList[queryTrigrams.length];
+        for (int i = 0; i < queryTrigrams.length; i++) {
+            lists[i] = postings.get(queryTrigrams[i]);
+            if (lists[i] == null) {
+                return new int[0];
+            }
+        }
+        Arrays.sort(lists, Comparator.comparingInt(list -> list.size));
+        int[] result = Arrays.copyOf(lists[0].values, lists[0].size);
+        int length = result.length;
+        for (int i = 1; i < lists.length && length > 0; i++) {
+            length = retainAll(result, length, lists[i]);
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    private static int retainAll(int[] candidates, int length, IntList other) {
+        int kept = 0;
+        int j = 0;
+        for (int i = 0; i < length; i++) {
+            while (j < other.size && other.values[j] < candidates[i]) {
+                j++;
+            }
+            if (j < other.size && other.values[j] == candidates[i]) {
+                candidates[kept++] = candidates[i];
+            }
+        }
+        return kept;
+    }
+
+    private void compact() {
+        List<Entry> live = ids.values().stream().map(entries::get).toList();
+        ids.clear();
+        entries.clear();
+        postings.clear();
+        removedCount = 0;
+        for (Entry entry : live) {
+            put(entry.path, entry.directory, entry.modified);
+        }
+    }
+
+    private static long[] trigrams(String value) {
+        if (value.length() < 3) {
+            return new long[0];
+        }
+        long[] result = new long[value.length() - 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ((long) value.charAt(i) << 32) | ((long) value.charAt(i + 1) << 16) | value.charAt(i + 2);
+        }
+        return Arrays.stream(result).distinct().toArray();
+    }
+
+    static class Entry {
+        final String path;
+        final String name;
+        final boolean directory;
+        long modified;
+
+        Entry(String path, boolean directory, long modified) {
+            this.path = path;
+            int separator = path.lastIndexOf(SEPARATOR);
+            this.name = separator >= 0 ? path.substring(separator + SEPARATOR.length()) : path;
+            this.directory = directory;
+            this.modified = modified;
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size > 0 && values[size - 1] == value) {
+                return;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
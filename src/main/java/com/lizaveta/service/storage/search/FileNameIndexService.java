@@ -0,0 +1,293 @@
+package com.lizaveta.service.storage.search;
+
+import com.lizaveta.config.StoragePath;
+import com.lizaveta.model.fileDTO.FileInfoDto;
+import com.lizaveta.model.fileDTO.FileType;
+import com.lizaveta.service.storage.event.StorageChangeEvent;
+import com.lizaveta.service.storage.util.FileUtils;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+
+/**
+ * Поиск по именам файлов через постоянный индекс на пользователя вместо обхода всего дерева на каждый запрос.
+ * Индекс обновляется событиями {@link StorageChangeEvent} и сохраняется в .index/&lt;userId&gt;/names.idx.
+ * При загрузке с диска заново читаются только папки, время изменения которых отличается от запомненного,
+ * поэтому изменения, сделанные в обход приложения, тоже подхватываются.
+ */
+@Slf4j
+@Service
+public class FileNameIndexService {
+
+    private static final Path GLOBAL_STORAGE_ROOT = StoragePath.detect().getPath();
+    private static final Path INDEX_ROOT = GLOBAL_STORAGE_ROOT.resolve(".index");
+    private static final String INDEX_FILE = "names.idx";
+
+    private final Map<String, FileNameIndex> indexes = new ConcurrentHashMap<>();
+    private final ExecutorService warmUpExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "NameIndexWarmUp");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public List<FileInfoDto> search(Path userRoot, String query) throws IOException {
+        FileNameIndex index = getIndex(userRoot);
+        Lock lock = index.getLock().readLock();
+        lock.lock();
+        try {
+            return index.search(query).stream()
+                    .map(entry -> new FileInfoDto(entry.path, entry.name, entry.directory ? FileType.FOLDER : FileType.FILE))
+                    .toList();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @EventListener
+    public void onStorageChange(StorageChangeEvent event) {
+        Path path = event.path().normalize();
+        if (!path.startsWith(GLOBAL_STORAGE_ROOT) || path.equals(GLOBAL_STORAGE_ROOT)) {
+            return;
+        }
+        String userId = GLOBAL_STORAGE_ROOT.relativize(path).getName(0).toString();
+        if (userId.startsWith(".")) {
+            return;
+        }
+        Path userRoot = GLOBAL_STORAGE_ROOT.resolve(userId);
+        try {
+            if (event.kind() == StorageChangeEvent.Kind.DELETED && path.equals(userRoot)) {
+                indexes.remove(userId);
+                FileUtils.deleteRecursively(INDEX_ROOT.resolve(userId));
+                return;
+            }
+            FileNameIndex index = getIndex(userRoot);
+            if (path.equals(userRoot)) {
+                return;
+            }
+            Lock lock = index.getLock().writeLock();
+            lock.lock();
+            try {
+                if (event.kind() == StorageChangeEvent.Kind.DELETED) {
+                    index.remove(relative(userRoot, path));
+                } else {
+                    addWithAncestors(index, userRoot, path);
+                }
+                touchParent(index, userRoot, path);
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Не удалось обновить индекс имён для {}: {}", path, e.getMessage());
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        warmUpExecutor.submit(() -> {
+            if (!Files.isDirectory(GLOBAL_STORAGE_ROOT)) {
+                return;
+            }
+            try (Stream<Path> users = Files.list(GLOBAL_STORAGE_ROOT)) {
+                users.filter(Files::isDirectory)
+                        .filter(path -> !path.getFileName().toString().startsWith("."))
+                        .forEach(userRoot -> {
+                            try {
+                                getIndex(userRoot);
+                            } catch (IOException | UncheckedIOException e) {
+                                log.warn("Не удалось подготовить индекс имён для {}: {}", userRoot, e.getMessage());
+                            }
+                        });
+            } catch (IOException e) {
+                log.error("Ошибка при подготовке индексов имён", e);
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "PT30S")
+    public void flush() {
+        indexes.forEach((userId, index) -> {
+            Lock lock = index.getLock().readLock();
+            lock.lock();
+            try {
+                if (index.isDirty()) {
+                    save(userId, index);
+                }
+            } catch (IOException e) {
+                log.warn("Не удалось сохранить индекс имён пользователя {}", userId, e);
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        warmUpExecutor.shutdownNow();
+        flush();
+    }
+
+    private FileNameIndex getIndex(Path userRoot) throws IOException {
+        FileNameIndex index = indexes.computeIfAbsent(userRoot.getFileName().toString(), key -> new FileNameIndex());
+        synchronized (index) {
+            if (!index.loaded) {
+                load(userRoot, index);
+                index.loaded = true;
+            }
+        }
+        return index;
+    }
+
+    private void load(Path userRoot, FileNameIndex index) throws IOException {
+        long started = System.nanoTime();
+        Lock lock = index.getLock().writeLock();
+        lock.lock();
+        try {
+            Path indexFile = INDEX_ROOT.resolve(userRoot.getFileName().toString()).resolve(INDEX_FILE);
+            if (Files.isRegularFile(indexFile)) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+                    index.readFrom(in);
+                } catch (IOException e) {
+                    log.warn("Индекс имён {} повреждён и будет построен заново: {}", indexFile, e.getMessage());
+                    index.remove("");
+                }
+            }
+            int rescanned = reconcile(index, userRoot);
+            log.info("Индекс имён {} готов: {} записей, перечитано папок {}, {} мс",
+                    userRoot.getFileName(), index.size(), rescanned, (System.nanoTime() - started) / 1_000_000);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Перечитывает папки, изменившиеся с момента сохранения индекса
+    private int reconcile(FileNameIndex index, Path userRoot) throws IOException {
+        if (!index.contains("")) {
+            rescanSubtree(index, userRoot, userRoot);
+            return 1;
+        }
+        int rescanned = 0;
+        for (FileNameIndex.Entry directory : index.directories()) {
+            if (!index.contains(directory.path)) {
+                continue;
+            }
+            Path path = userRoot.resolve(directory.path);
+            if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                index.remove(directory.path);
+                continue;
+            }
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            if (modified != directory.modified) {
+                rescanDirectory(index, userRoot, path, modified);
+                rescanned++;
+            }
+        }
+        return rescanned;
+    }
+
+    private void rescanDirectory(FileNameIndex index, Path userRoot, Path directory, long modified) throws IOException {
+        String directoryPath = relative(userRoot, directory);
+        Map<String, FileNameIndex.Entry> known = index.children(directoryPath);
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+            for (Path child : children) {
+                FileNameIndex.Entry entry = known.remove(child.getFileName().toString());
+                boolean isDirectory = Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS);
+                if (entry != null && entry.directory == isDirectory) {
+                    continue;
+                }
+                if (entry != null) {
+                    index.remove(entry.path);
+                }
+                if (isDirectory) {
+                    rescanSubtree(index, userRoot, child);
+                } else {
+                    index.put(relative(userRoot, child), false, 0);
+                }
+            }
+        }
+        for (FileNameIndex.Entry removed : known.values()) {
+            index.remove(removed.path);
+        }
+        index.put(directoryPath, true, modified);
+    }
+
+    private void rescanSubtree(FileNameIndex index, Path userRoot, Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                index.put(relative(userRoot, dir), true, attrs.lastModifiedTime().toMillis());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                index.put(relative(userRoot, file), false, 0);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                log.debug("Пропущен недоступный путь {}: {}", file, exc.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void addWithAncestors(FileNameIndex index, Path userRoot, Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            rescanSubtree(index, userRoot, path);
+        } else {
+            index.put(relative(userRoot, path), false, 0);
+        }
+        for (Path parent = path.getParent(); parent != null && parent.startsWith(userRoot); parent = parent.getParent()) {
+            String parentPath = relative(userRoot, parent);
+            if (index.contains(parentPath)) {
+                break;
+            }
+            index.put(parentPath, true, Files.getLastModifiedTime(parent).toMillis());
+        }
+    }
+
+    // Изменение уже учтено, поэтому при следующей сверке родительскую папку перечитывать не нужно
+    private void touchParent(FileNameIndex index, Path userRoot, Path path) throws IOException {
+        Path parent = path.getParent();
+        if (parent != null && parent.startsWith(userRoot) && Files.isDirectory(parent)) {
+            String parentPath = relative(userRoot, parent);
+            if (index.contains(parentPath)) {
+                index.put(parentPath, true, Files.getLastModifiedTime(parent).toMillis());
+            }
+        }
+    }
+
+    private void save(String userId, FileNameIndex index) throws IOException {
+        Path directory = INDEX_ROOT.resolve(userId);
+        Files.createDirectories(directory);
+        Path target = directory.resolve(INDEX_FILE);
+        Path temp = directory.resolve(INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            index.writeTo(out);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        index.markClean();
+    }
+
+    private static String relative(Path userRoot, Path path) {
+        return userRoot.relativize(path).toString();
+    }
+}
@@ -0,0 +1,19 @@
+package com.lizaveta.service.storage.transfer;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/** Передача не принята: переполнена очередь пользователя (perUser) или общая очередь планировщика. */
+@Getter
+public class TransferRejectedException extends RuntimeException {
+
+    private final boolean perUser;
+    private final Duration retryAfter;
+
+    public TransferRejectedException(String message, boolean perUser, Duration retryAfter) {
+        super(message);
+        this.perUser = perUser;
+        this.retryAfter = retryAfter;
+    }
+}
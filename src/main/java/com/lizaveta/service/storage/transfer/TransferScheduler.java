@@ -0,0 +1,234 @@
+package com.lizaveta.service.storage.transfer;
+
+import com.lizaveta.config.ExecutionProperties;
+import com.lizaveta.model.uploadDTO.TransferStatsDTO;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Единый планировщик передач. Одновременно выполняется не больше maxConcurrent передач и не больше
+ * maxActivePerUser от одного пользователя; ожидающие передачи выбираются по кругу между пользователями,
+ * поэтому активный пользователь не вытесняет остальных. Очереди ограничены: при переполнении очереди
+ * пользователя или общей очереди передача сразу отклоняется {@link TransferRejectedException}.
+ * Передачи, которые идут на потоке запроса, получают место через {@link #admit} и стоят в тех же очередях.
+ * Асинхронные передачи выполняются на собственном пуле transferExecutor, а не на общем пуле MVC.
+ */
+@Slf4j
+@Component
+public class TransferScheduler implements MeterBinder {
+
+    private final AsyncTaskExecutor executor;
+    private final ExecutionProperties.Transfer properties;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, UserQueue> queues = new HashMap<>();
+    // Пользователи с ожидающими передачами в порядке обслуживания
+    private final Deque<UserQueue> rotation = new ArrayDeque<>();
+    private int active;
+    private int queued;
+
+    public TransferScheduler(@Qualifier("transferExecutor") AsyncTaskExecutor executor, ExecutionProperties properties) {
+        this.executor = executor;
+        this.properties = properties.getTransfer();
+    }
+
+    public <T> CompletableFuture<T> submit(String userId, Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        enqueue(userId, new Task(() -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }, result, null));
+        return result;
+    }
+
+    /**
+     * Место для передачи, которая выполняется на вызывающем потоке. Ждёт своей очереди не дольше
+     * admissionTimeout; место освобождается закрытием {@link Slot}.
+     */
+    public Slot admit(String userId) throws InterruptedIOException {
+        CompletableFuture<Slot> admission = new CompletableFuture<>();
+        Task job = new Task(null, admission, admission);
+        enqueue(userId, job);
+        try {
+            return admission.get(properties.getAdmissionTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            withdraw(userId, job);
+            throw new TransferRejectedException("Очередь передач не освободилась вовремя", false, properties.getRetryAfter());
+        } catch (InterruptedException e) {
+            withdraw(userId, job);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Ожидание очереди передач прервано");
+        } catch (ExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    public TransferStatsDTO stats() {
+        lock.lock();
+        try {
+            return new TransferStatsDTO(active, queued, queues.size(), properties.getMaxConcurrent());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("offchance.transfer.active", this, scheduler -> scheduler.stats().active())
+                .description("Выполняемые передачи")
+                .register(registry);
+        Gauge.builder("offchance.transfer.queued", this, scheduler -> scheduler.stats().queued())
+                .description("Передачи в очереди")
+                .register(registry);
+        Gauge.builder("offchance.transfer.users", this, scheduler -> scheduler.stats().users())
+                .description("Пользователи с активными или ожидающими передачами")
+                .register(registry);
+    }
+
+    private void enqueue(String userId, Task job) {
+        lock.lock();
+        try {
+            // Ёмкость проверяется до создания очереди пользователя, чтобы отказ не оставлял пустую очередь
+            UserQueue queue = queues.get(userId);
+            if (queue != null && queue.pending.size() >= properties.getPerUserQueueCapacity()) {
+                throw new TransferRejectedException("Слишком много передач пользователя в очереди", true,
+                        properties.getRetryAfter());
+            }
+            if (queued >= properties.getQueueCapacity()) {
+                throw new TransferRejectedException("Очередь передач переполнена", false, properties.getRetryAfter());
+            }
+            if (queue == null) {
+                queue = new UserQueue(userId);
+                queues.put(userId, queue);
+            }
+            queue.pending.add(job);
+            queued++;
+            if (queue.pending.size() == 1) {
+                rotation.addLast(queue);
+            }
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Ожидание места прекращено: задача снимается с очереди, а если место уже выдано — освобождается
+    private void withdraw(String userId, Task job) {
+        lock.lock();
+        try {
+            UserQueue queue = queues.get(userId);
+            if (queue != null && queue.pending.remove(job)) {
+                queued--;
+                if (queue.pending.isEmpty()) {
+                    rotation.remove(queue);
+                }
+                removeIfIdle(queue);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        job.admission().thenAccept(Slot::close);
+    }
+
+    // Вызывается под блокировкой
+    private void dispatch() {
+        int skipped = 0;
+        while (active < properties.getMaxConcurrent() && skipped < rotation.size()) {
+            UserQueue queue = rotation.pollFirst();
+            if (queue.active >= properties.getMaxActivePerUser()) {
+                rotation.addLast(queue);
+                skipped++;
+                continue;
+            }
+            skipped = 0;
+            Task job = queue.pending.poll();
+            queued--;
+            if (!queue.pending.isEmpty()) {
+                rotation.addLast(queue);
+            }
+            start(queue, job);
+        }
+    }
+
+    private void start(UserQueue queue, Task job) {
+        active++;
+        queue.active++;
+        if (job.admission() != null) {
+            AtomicBoolean released = new AtomicBoolean();
+            job.admission().complete(() -> {
+                if (released.compareAndSet(false, true)) {
+                    finished(queue);
+                }
+            });
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    job.body().run();
+                } finally {
+                    finished(queue);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Пул потоков исполнителя переполнен — передача завершается с отказом, место освобождается
+            log.warn("Исполнитель отклонил передачу пользователя {}: {}", queue.userId, e.getMessage());
+            active--;
+            queue.active--;
+            removeIfIdle(queue);
+            job.result().completeExceptionally(
+                    new TransferRejectedException("Исполнитель передач перегружен", false, properties.getRetryAfter()));
+        }
+    }
+
+    private void finished(UserQueue queue) {
+        lock.lock();
+        try {
+            active--;
+            queue.active--;
+            removeIfIdle(queue);
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removeIfIdle(UserQueue queue) {
+        if (queue.active == 0 && queue.pending.isEmpty()) {
+            queues.remove(queue.userId);
+        }
+    }
+
+    public interface Slot extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    // admission задан у передач на потоке вызывающего: вместо запуска на пуле им выдаётся Slot
+    private record Task(Runnable body, CompletableFuture<?> result, CompletableFuture<Slot> admission) {
+    }
+
+    private static class UserQueue {
+        final String userId;
+        final Queue<Task> pending = new ArrayDeque<>();
+        int active;
+
+        UserQueue(String userId) {
+            this.userId = userId;
+        }
+    }
+}
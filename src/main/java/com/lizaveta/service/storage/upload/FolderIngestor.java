@@ -0,0 +1,182 @@
+package com.lizaveta.service.storage.upload;
+
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.service.storage.blob.BlobStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Запись файлов загружаемой папки. Файлы обрабатываются пакетами: внутри пакета они пишутся параллельно
+ * на общем ограниченном пуле, затем одним проходом сбрасываются на диск сами файлы и их папки (каждая папка один раз).
+ * Ошибка отдельного файла не прерывает загрузку — она возвращается в результате по номеру файла.
+ */
+@Slf4j
+@Component
+public class FolderIngestor implements MeterBinder {
+
+    private final BlobStore blobStore;
+    private final StorageProperties.FolderUpload properties;
+    private final ExecutorService ingestPool;
+
+    public FolderIngestor(BlobStore blobStore, StorageProperties storageProperties) {
+        this.blobStore = blobStore;
+        this.properties = storageProperties.getFolderUpload();
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.ingestPool = Executors.newFixedThreadPool(properties.getThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "FolderIngest-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new ExecutorServiceMetrics(ingestPool, "folder-ingest", Tags.empty()).bindTo(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ingestPool.shutdownNow();
+    }
+
+    /**
+     * @param onStored вызывается в потоке вызывающего для каждого записанного и сброшенного на диск файла
+     * @return ошибки по номерам файлов
+     */
+    public SortedMap<Integer, Exception> write(Path userRoot, List<MultipartFile> files, List<Path> targets,
+                                               Consumer<Path> onStored) throws IOException {
+        SortedMap<Integer, Exception> failures = new ConcurrentSkipListMap<>();
+        int batchSize = Math.max(1, properties.getSyncBatchSize());
+        for (int start = 0; start < files.size(); start += batchSize) {
+            int end = Math.min(files.size(), start + batchSize);
+            runAll(start, end, i -> {
+                try (InputStream in = files.get(i).getInputStream()) {
+                    blobStore.store(userRoot, in, targets.get(i));
+                }
+            }, failures);
+            if (properties.isSync()) {
+                sync(userRoot, targets, start, end, failures);
+            }
+            for (int i = start; i < end; i++) {
+                if (!failures.containsKey(i)) {
+                    onStored.accept(targets.get(i));
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Сбрасывает на диск пакет уже записанных файлов и их папки (каждую один раз) — для файлов,
+     * записанных в обход {@link #write}, например при потоковой загрузке папки.
+     * Файлы с ошибкой не удаляются: это решает вызывающий.
+     *
+     * @return ошибки по номерам файлов
+     */
+    public SortedMap<Integer, Exception> sync(Path userRoot, List<Path> files) throws IOException {
+        SortedMap<Integer, Exception> failures = new ConcurrentSkipListMap<>();
+        runAll(0, files.size(), i -> force(files.get(i)), failures);
+        Set<Path> directories = new LinkedHashSet<>();
+        for (int i = 0; i < files.size(); i++) {
+            if (!failures.containsKey(i)) {
+                directories.add(files.get(i).getParent());
+            }
+        }
+        forceDirectories(userRoot, directories);
+        return failures;
+    }
+
+    private void sync(Path userRoot, List<Path> targets, int start, int end, Map<Integer, Exception> failures) throws IOException {
+        Set<Path> directories = new LinkedHashSet<>();
+        runAll(start, end, i -> {
+            if (!failures.containsKey(i)) {
+                force(targets.get(i));
+            }
+        }, failures);
+        for (int i = start; i < end; i++) {
+            if (failures.containsKey(i)) {
+                // Не сброшенный на диск файл не считается сохранённым
+                try {
+                    blobStore.delete(targets.get(i));
+                } catch (IOException e) {
+                    log.warn("Не удалось удалить несохранённый файл {}: {}", userRoot.relativize(targets.get(i)), e.getMessage());
+                }
+            } else {
+                directories.add(targets.get(i).getParent());
+            }
+        }
+        forceDirectories(userRoot, directories);
+    }
+
+    private static void forceDirectories(Path userRoot, Set<Path> directories) {
+        for (Path directory : directories) {
+            try {
+                force(directory);
+            } catch (IOException e) {
+                // Не все платформы позволяют открыть папку для fsync
+                log.debug("Не удалось сбросить на диск папку {}: {}", userRoot.relativize(directory), e.getMessage());
+            }
+        }
+    }
+
+    private void runAll(int start, int end, FileTask task, Map<Integer, Exception> failures) throws IOException {
+        if (!properties.isParallel() || end - start == 1) {
+            for (int i = start; i < end; i++) {
+                run(task, i, failures);
+            }
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            int index = i;
+            futures.add(ingestPool.submit(() -> run(task, index, failures)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Загрузка папки прервана");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static void run(FileTask task, int index, Map<Integer, Exception> failures) {
+        try {
+            task.run(index);
+        } catch (IOException | RuntimeException e) {
+            failures.put(index, e);
+        }
+    }
+
+    private static void force(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    @FunctionalInterface
+    private interface FileTask {
+        void run(int index) throws IOException;
+    }
+}
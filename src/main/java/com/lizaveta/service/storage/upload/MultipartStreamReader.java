@@ -0,0 +1,244 @@
+package com.lizaveta.service.storage.upload;
+
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Потоковый разбор тела multipart/form-data без промежуточных файлов контейнера.
+ * Части читаются строго по порядку: тело очередной части нужно прочитать (или пропустить) до перехода к следующей.
+ */
+public class MultipartStreamReader {
+
+    private static final int MAX_HEADER_LINE = 16 * 1024;
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] buffer;
+    private int head;
+    private int tail;
+    private boolean endOfInput;
+    private boolean partDone;
+    private boolean finished;
+
+    public MultipartStreamReader(InputStream in, String boundary, int bufferSize) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        this.buffer = new byte[Math.max(bufferSize, MAX_HEADER_LINE + delimiter.length * 2)];
+        // Первая граница идёт без предшествующего CRLF, поэтому он добавляется искусственно
+        buffer[0] = CR;
+        buffer[1] = LF;
+        this.tail = 2;
+    }
+
+    public Part nextPart() throws IOException {
+        if (finished) {
+            return null;
+        }
+        skipRemainingBody();
+
+        ensureAvailable(2);
+        if (tail - head >= 2 && buffer[head] == '-' && buffer[head + 1] == '-') {
+            finished = true;
+            return null;
+        }
+        // После границы допускаются пробелы до конца строки
+        readLine();
+
+        HttpHeaders headers = new HttpHeaders();
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                headers.add(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+            }
+        }
+        partDone = false;
+        return new Part(headers);
+    }
+
+    private int readBody(byte[] target, int offset, int length) throws IOException {
+        int count = nextBodyChunk(length);
+        if (count > 0) {
+            System.arraycopy(buffer, head, target, offset, count);
+            head += count;
+        }
+        return count;
+    }
+
+    private int readBody(ByteBuffer target) throws IOException {
+        int count = nextBodyChunk(target.remaining());
+        if (count > 0) {
+            target.put(buffer, head, count);
+            head += count;
+        }
+        return count;
+    }
+
+    // Возвращает, сколько байт тела текущей части лежит в буфере начиная с head (не больше limit), или -1 в конце части
+    private int nextBodyChunk(int limit) throws IOException {
+        if (partDone) {
+            return -1;
+        }
+        while (true) {
+            int delimiterIndex = indexOfDelimiter();
+            if (delimiterIndex == head) {
+                head += delimiter.length;
+                partDone = true;
+                return -1;
+            }
+            int available = delimiterIndex >= 0
+                    ? delimiterIndex - head
+                    : tail - head - (delimiter.length - 1);
+            if (available > 0) {
+                return Math.min(limit, available);
+            }
+            if (endOfInput) {
+                throw new EOFException("Неожиданный конец multipart-потока");
+            }
+            fill();
+        }
+    }
+
+    private void skipRemainingBody() throws IOException {
+        byte[] skip = new byte[8192];
+        while (readBody(skip, 0, skip.length) != -1) {
+            // пропуск непрочитанного тела части или преамбулы
+        }
+    }
+
+    private String readLine() throws IOException {
+        while (true) {
+            for (int i = head; i < tail - 1; i++) {
+                if (buffer[i] == CR && buffer[i + 1] == LF) {
+                    String line = new String(buffer, head, i - head, StandardCharsets.UTF_8);
+                    head = i + 2;
+                    return line;
+                }
+            }
+            if (tail - head > MAX_HEADER_LINE) {
+                throw new IOException("Слишком длинный заголовок части multipart");
+            }
+            if (endOfInput) {
+                throw new EOFException("Неожиданный конец заголовков multipart");
+            }
+            fill();
+        }
+    }
+
+    private int indexOfDelimiter() {
+        int last = tail - delimiter.length;
+        outer:
+        for (int i = head; i <= last; i++) {
+            if (buffer[i] != CR) {
+                continue;
+            }
+            for (int j = 1; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private void ensureAvailable(int count) throws IOException {
+        while (tail - head < count && !endOfInput) {
+            fill();
+        }
+    }
+
+    private void fill() throws IOException {
+        if (head > 0) {
+            System.arraycopy(buffer, head, buffer, 0, tail - head);
+            tail -= head;
+            head = 0;
+        }
+        int read = in.read(buffer, tail, buffer.length - tail);
+        if (read == -1) {
+            endOfInput = true;
+        } else {
+            tail += read;
+        }
+    }
+
+    public class Part {
+
+        private final HttpHeaders headers;
+        private final ContentDisposition contentDisposition;
+
+        private Part(HttpHeaders headers) {
+            this.headers = headers;
+            String disposition = headers.getFirst(HttpHeaders.CONTENT_DISPOSITION);
+            this.contentDisposition = disposition != null
+                    ? ContentDisposition.parse(disposition)
+                    : ContentDisposition.empty();
+        }
+
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+
+        public String getName() {
+            return contentDisposition.getName();
+        }
+
+        public String getFileName() {
+            return contentDisposition.getFilename();
+        }
+
+        public boolean isFile() {
+            return getFileName() != null;
+        }
+
+        public String readString(int limit) throws IOException {
+            byte[] value = new byte[limit];
+            int length = 0;
+            int read;
+            while ((read = readBody(value, length, limit - length)) != -1) {
+                length += read;
+                if (length == limit) {
+                    if (readBody(new byte[1], 0, 1) != -1) {
+                        throw new IOException("Слишком длинное значение поля " + getName());
+                    }
+                    break;
+                }
+            }
+            return new String(value, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Переносит тело части в канал через переданный (обычно direct) буфер.
+         */
+        public long transferTo(WritableByteChannel channel, ByteBuffer transferBuffer) throws IOException {
+            long total = 0;
+            int read;
+            transferBuffer.clear();
+            while ((read = readBody(transferBuffer)) != -1) {
+                total += read;
+                if (!transferBuffer.hasRemaining()) {
+                    drain(transferBuffer, channel);
+                }
+            }
+            drain(transferBuffer, channel);
+            return total;
+        }
+
+        private void drain(ByteBuffer transferBuffer, WritableByteChannel channel) throws IOException {
+            transferBuffer.flip();
+            while (transferBuffer.hasRemaining()) {
+                channel.write(transferBuffer);
+            }
+            transferBuffer.clear();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.lizaveta.service.storage.upload;
+
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.model.uploadDTO.FailedFileDTO;
+import com.lizaveta.model.uploadDTO.StreamUploadResultDTO;
+import com.lizaveta.service.storage.FileService;
+import com.lizaveta.service.storage.FolderService;
+import com.lizaveta.service.storage.blob.BlobStore;
+import com.lizaveta.service.storage.metrics.TransferMetrics;
+import com.lizaveta.service.storage.usage.QuotaExceededException;
+import com.lizaveta.service.storage.usage.StorageUsageService;
+import com.lizaveta.service.storage.util.FileUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Приём multipart-загрузок без временных файлов контейнера: тело запроса разбирается по мере чтения,
+ * и каждая файловая часть сразу пишется на диск через FileChannel.
+ * Поля формы применяются к следующим за ними файлам, поэтому должны идти раньше них:
+ * folderId — папка для одиночных файлов, parentFolderId — родитель загружаемой папки,
+ * relativePath — путь следующего файла внутри загружаемой папки.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StreamingUploadService {
+
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+    private static final int TRANSFER_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 32;
+    private static final int MAX_FIELD_LENGTH = 4096;
+
+    private final FileService fileService;
+    private final FolderService folderService;
+    private final BlobStore blobStore;
+    private final StorageUsageService storageUsageService;
+    private final TransferMetrics transferMetrics;
+    private final StorageProperties storageProperties;
+    private final FolderIngestor folderIngestor;
+    private final Queue<ByteBuffer> transferBuffers = new ConcurrentLinkedQueue<>();
+
+    public StreamUploadResultDTO ingest(Path userRoot, String contentType, long contentLength, InputStream body) throws IOException {
+        // Размер тела включает разметку multipart, поэтому проверка чуть строже фактического размера файлов
+        if (contentLength > 0) {
+            storageUsageService.checkAvailable(userRoot, contentLength);
+        }
+        MultipartStreamReader reader = new MultipartStreamReader(body, extractBoundary(contentType), READ_BUFFER_SIZE);
+        String folderId = "";
+        String parentFolderId = "";
+        String relativePath = null;
+        Path folderUploadRoot = null;
+        String folderTimestamp = FileUtils.generateTimestampedFileName("");
+        Set<Path> createdDirectories = new HashSet<>();
+        List<FolderEntry> unsynced = new ArrayList<>();
+        List<String> stored = new ArrayList<>();
+        List<FailedFileDTO> failed = new ArrayList<>();
+
+        ByteBuffer transferBuffer = acquireBuffer();
+        try {
+            MultipartStreamReader.Part part;
+            while ((part = reader.nextPart()) != null) {
+                if (!part.isFile()) {
+                    String value = part.readString(MAX_FIELD_LENGTH);
+                    switch (String.valueOf(part.getName())) {
+                        case "folderId" -> folderId = value;
+                        case "parentFolderId" -> parentFolderId = value;
+                        case "relativePath" -> relativePath = value;
+                        default -> log.debug("Пропущено неизвестное поле формы '{}'", part.getName());
+                    }
+                    continue;
+                }
+
+                if (relativePath == null) {
+                    Path target = fileService.resolveUploadTarget(userRoot, part.getFileName(), folderId);
+                    long size = writePart(userRoot, part, target, transferBuffer);
+                    stored.add(userRoot.relativize(target).toString());
+                    log.debug("Файл '{}' записан потоком: {} байт", target, size);
+                    continue;
+                }
+
+                // Файл папки: ошибка записи попадает в отчёт, а непрочитанный остаток части пропускается
+                // при переходе к следующей; если не читается сам запрос, переход к следующей части прервёт загрузку
+                String entryPath = relativePath;
+                relativePath = null;
+                try {
+                    if (folderUploadRoot == null) {
+                        folderUploadRoot = folderService.resolveFolderUploadRoot(userRoot, parentFolderId, entryPath);
+                    }
+                    Path target = folderService.resolveFolderEntryTarget(userRoot, folderUploadRoot, Paths.get(entryPath),
+                            part.getFileName(), folderTimestamp);
+                    // Каркас папок создаётся по одному разу на папку, а не перед каждым файлом
+                    if (createdDirectories.add(target.getParent())) {
+                        FileUtils.createDirectoriesIfNotExist(target.getParent());
+                    }
+                    long size = writePart(userRoot, part, target, transferBuffer);
+                    unsynced.add(new FolderEntry(entryPath, target));
+                    log.debug("Файл папки '{}' записан потоком: {} байт", target, size);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Файл '{}' папки не сохранён: {}", entryPath, e.getMessage());
+                    failed.add(new FailedFileDTO(entryPath, e.getMessage()));
+                }
+                if (unsynced.size() >= Math.max(1, storageProperties.getFolderUpload().getSyncBatchSize())) {
+                    syncFolderEntries(userRoot, unsynced, stored, failed);
+                }
+            }
+            syncFolderEntries(userRoot, unsynced, stored, failed);
+        } finally {
+            releaseBuffer(transferBuffer);
+        }
+        return new StreamUploadResultDTO(stored, failed);
+    }
+
+    // Файлы папки сбрасываются на диск пакетом вместе со своими папками; не сброшенный файл не считается сохранённым
+    private void syncFolderEntries(Path userRoot, List<FolderEntry> entries,
+                                   List<String> stored, List<FailedFileDTO> failed) throws IOException {
+        if (entries.isEmpty()) {
+            return;
+        }
+        SortedMap<Integer, Exception> failures = storageProperties.getFolderUpload().isSync()
+                ? folderIngestor.sync(userRoot, entries.stream().map(FolderEntry::target).toList())
+                : Collections.emptySortedMap();
+        for (int i = 0; i < entries.size(); i++) {
+            FolderEntry entry = entries.get(i);
+            String fileId = userRoot.relativize(entry.target()).toString();
+            Exception failure = failures.get(i);
+            if (failure == null) {
+                stored.add(fileId);
+                continue;
+            }
+            log.warn("Файл '{}' папки не сброшен на диск: {}", entry.relativePath(), failure.getMessage());
+            failed.add(new FailedFileDTO(entry.relativePath(), failure.getMessage()));
+            try {
+                fileService.deleteFile(userRoot, fileId);
+            } catch (IOException e) {
+                log.warn("Не удалось удалить несохранённый файл {}: {}", fileId, e.getMessage());
+            }
+        }
+        entries.clear();
+    }
+
+    private long writePart(Path userRoot, MultipartStreamReader.Part part, Path target, ByteBuffer transferBuffer) throws IOException {
+        // Файл пишется во временную область хранилища блобов, хэш считается по ходу записи,
+        // после чего содержимое атомарно становится итоговым файлом или ссылкой на уже имеющийся блоб
+        long started = System.nanoTime();
+        Path staged = blobStore.newStagingFile();
+        try {
+            MessageDigest digest = BlobStore.newDigest();
+            long size;
+            // Тело читается мимо ограничений multipart контейнера, и при chunked-передаче размер заранее неизвестен:
+            // запись обрывается, как только часть превысит максимальный размер файла или остаток квоты
+            BoundedChannel bounded = new BoundedChannel(FileChannel.open(staged, StandardOpenOption.WRITE),
+                    storageProperties.getUpload().getMaxFileSize().toBytes(), storageUsageService.available(userRoot));
+            try (bounded) {
+                size = part.transferTo(new DigestingChannel(bounded, digest), transferBuffer);
+            }
+            fileService.storeStaged(userRoot, staged, HexFormat.of().formatHex(digest.digest()), target);
+            transferMetrics.recordUpload(TransferMetrics.STREAM, size, System.nanoTime() - started);
+            return size;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(staged);
+            throw e;
+        }
+    }
+
+    private String extractBoundary(String contentType) {
+        if (contentType == null) {
+            throw new IllegalArgumentException("Отсутствует Content-Type запроса");
+        }
+        MediaType mediaType = MediaType.parseMediaType(contentType);
+        String boundary = mediaType.getParameter("boundary");
+        if (!MediaType.MULTIPART_FORM_DATA.includes(mediaType) || boundary == null || boundary.isEmpty()) {
+            throw new IllegalArgumentException("Ожидается multipart/form-data с параметром boundary");
+        }
+        if (boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+            boundary = boundary.substring(1, boundary.length() - 1);
+        }
+        return boundary;
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = transferBuffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE);
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        if (transferBuffers.size() < MAX_POOLED_BUFFERS) {
+            transferBuffers.offer(buffer);
+        }
+    }
+
+    private static final class BoundedChannel implements WritableByteChannel {
+
+        private final WritableByteChannel channel;
+        private final long maxFileSize;
+        private final long available;
+        private long written;
+
+        BoundedChannel(WritableByteChannel channel, long maxFileSize, long available) {
+            this.channel = channel;
+            this.maxFileSize = maxFileSize;
+            this.available = available;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            long total = written + src.remaining();
+            if (total > maxFileSize) {
+                throw new IllegalArgumentException("Файл превышает максимальный размер " + maxFileSize + " байт");
+            }
+            if (total > available) {
+                throw new QuotaExceededException("Превышена квота хранилища: доступно " + available
+                        + " байт, получено уже " + total);
+            }
+            int count = channel.write(src);
+            written += count;
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private record FolderEntry(String relativePath, Path target) {
+    }
+
+    private record DigestingChannel(WritableByteChannel channel, MessageDigest digest) implements WritableByteChannel {
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            ByteBuffer written = src.duplicate();
+            int count = channel.write(src);
+            written.limit(written.position() + count);
+            digest.update(written);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.lizaveta.service.storage.upload;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+@Getter
+public class UploadSession {
+
+    private final String id;
+    private final String ownerId;
+    private final String fileName;
+    private final String folderId;
+    private final long size;
+    private final long chunkSize;
+    private final Path directory;
+    private final BitSet receivedChunks;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile Instant lastActivity;
+    private volatile boolean closed;
+    private volatile boolean reserved;
+
+    public UploadSession(String id, String ownerId, String fileName, String folderId,
+                         long size, long chunkSize, Path directory, BitSet receivedChunks, Instant lastActivity,
+                         boolean reserved) {
+        this.id = id;
+        this.ownerId = ownerId;
+        this.fileName = fileName;
+        this.folderId = folderId;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.directory = directory;
+        this.receivedChunks = receivedChunks;
+        this.lastActivity = lastActivity;
+        this.reserved = reserved;
+    }
+
+    public Path getDataFile() {
+        return directory.resolve("data.part");
+    }
+
+    public int getChunkCount() {
+        return Math.toIntExact(chunkCount(size, chunkSize));
+    }
+
+    public static long chunkCount(long size, long chunkSize) {
+        return size / chunkSize + (size % chunkSize == 0 ? 0 : 1);
+    }
+
+    public long getChunkOffset(int index) {
+        return index * chunkSize;
+    }
+
+    public long getChunkLength(int index) {
+        return Math.min(chunkSize, size - getChunkOffset(index));
+    }
+
+    public void touch() {
+        lastActivity = Instant.now();
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    public void markReserved() {
+        reserved = true;
+    }
+
+    public synchronized byte[] markReceived(int index) {
+        receivedChunks.set(index);
+        return receivedChunks.toByteArray();
+    }
+
+    public synchronized boolean isComplete() {
+        return receivedChunks.cardinality() == getChunkCount();
+    }
+
+    public synchronized List<Integer> getReceived() {
+        return receivedChunks.stream().boxed().toList();
+    }
+
+    public synchronized List<Integer> getMissing() {
+        List<Integer> missing = new ArrayList<>();
+        for (int index = receivedChunks.nextClearBit(0); index < getChunkCount(); index = receivedChunks.nextClearBit(index + 1)) {
+            missing.add(index);
+        }
+        return missing;
+    }
+
+    public synchronized long getReceivedBytes() {
+        return receivedChunks.stream().mapToLong(this::getChunkLength).sum();
+    }
+}
@@ -0,0 +1,341 @@
+package com.lizaveta.service.storage.upload;
+
+import com.lizaveta.config.StoragePath;
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.model.uploadDTO.CreateUploadSessionRequestDTO;
+import com.lizaveta.model.uploadDTO.UploadSessionStatusDTO;
+import com.lizaveta.service.storage.FileService;
+import com.lizaveta.service.storage.metrics.TransferMetrics;
+import com.lizaveta.service.storage.usage.StorageUsageService;
+import com.lizaveta.service.storage.util.FileUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
+
+/**
+ * Сессии возобновляемой загрузки по частям. Каждая сессия хранится на диске рядом с хранилищем пользователей:
+ * метаданные, битовая карта принятых частей и заранее выделенный файл данных, в который части пишутся по своим смещениям.
+ * После перезапуска сервера сессии поднимаются с диска при первом обращении.
+ */
+@Slf4j
+@Service
+public class UploadSessionService {
+
+    private static final Path STORAGE_ROOT = StoragePath.detect().getPath();
+    private static final Path SESSIONS_ROOT = STORAGE_ROOT.resolve(".upload-sessions");
+    private static final String METADATA_FILE = "session.properties";
+    private static final String CHUNKS_FILE = "chunks.bin";
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    private final FileService fileService;
+    private final StorageUsageService storageUsageService;
+    private final TransferMetrics transferMetrics;
+    private final StorageProperties.Upload properties;
+    private final Map<String, UploadSession> sessions = new ConcurrentHashMap<>();
+
+    public UploadSessionService(FileService fileService, StorageUsageService storageUsageService,
+                                TransferMetrics transferMetrics, StorageProperties storageProperties) {
+        this.fileService = fileService;
+        this.storageUsageService = storageUsageService;
+        this.transferMetrics = transferMetrics;
+        this.properties = storageProperties.getUpload();
+    }
+
+    public UploadSessionStatusDTO createSession(Path userRoot, CreateUploadSessionRequestDTO request) throws IOException {
+        if (request.fileName() == null || request.fileName().isBlank()) {
+            throw new IllegalArgumentException("Не указано имя файла");
+        }
+        if (request.size() < 0 || request.size() > properties.getMaxFileSize().toBytes()) {
+            throw new IllegalArgumentException("Недопустимый размер файла: " + request.size());
+        }
+        long chunkSize = request.chunkSize() != null ? request.chunkSize() : properties.getChunkSize().toBytes();
+        if (chunkSize <= 0 || chunkSize > properties.getMaxChunkSize().toBytes()) {
+            throw new IllegalArgumentException("Недопустимый размер части: " + chunkSize);
+        }
+        // Карта частей переписывается целиком на каждую часть, поэтому число частей ограничено
+        if (UploadSession.chunkCount(request.size(), chunkSize) > properties.getMaxChunkCount()) {
+            throw new IllegalArgumentException("Слишком много частей: размер части " + chunkSize
+                    + " байт слишком мал для файла " + request.size() + " байт");
+        }
+        String folderId = request.folderId() != null ? request.folderId() : "";
+        FileUtils.resolveSecurePath(userRoot, folderId);
+        String fileName = Path.of(request.fileName()).getFileName().toString();
+
+        String sessionId = UUID.randomUUID().toString();
+        Path directory = SESSIONS_ROOT.resolve(sessionId);
+
+        // Файл данных выделяется сразу на весь размер, поэтому место резервируется при открытии сессии,
+        // а не при завершении; резерв переходит к сохранённому файлу или возвращается при отмене и истечении
+        storageUsageService.reserve(userRoot, request.size(), 1);
+        UploadSession session = new UploadSession(sessionId, ownerOf(userRoot), fileName, folderId,
+                request.size(), chunkSize, directory, new BitSet(), Instant.now(), true);
+        try {
+            Files.createDirectories(directory);
+            try (RandomAccessFile dataFile = new RandomAccessFile(session.getDataFile().toFile(), "rw")) {
+                dataFile.setLength(request.size());
+            }
+            writeMetadata(session);
+        } catch (IOException | RuntimeException e) {
+            storageUsageService.release(userRoot, request.size(), 1);
+            FileUtils.deleteRecursively(directory);
+            throw e;
+        }
+        sessions.put(sessionId, session);
+
+        log.debug("Создана сессия загрузки {}: файл '{}', {} байт, {} частей по {} байт",
+                sessionId, fileName, request.size(), session.getChunkCount(), chunkSize);
+        return toStatus(session);
+    }
+
+    public UploadSessionStatusDTO writeChunk(Path userRoot, String sessionId, int index, InputStream body) throws IOException {
+        UploadSession session = getOwnedSession(userRoot, sessionId);
+        if (index < 0 || index >= session.getChunkCount()) {
+            throw new IllegalArgumentException("Недопустимый номер части: " + index);
+        }
+
+        Lock lock = session.getLock().readLock();
+        lock.lock();
+        try {
+            ensureOpen(session);
+            long started = System.nanoTime();
+            long offset = session.getChunkOffset(index);
+            long expected = session.getChunkLength(index);
+            try (FileChannel channel = FileChannel.open(session.getDataFile(), StandardOpenOption.WRITE)) {
+                long written = copyToChannel(body, channel, offset, expected);
+                if (written != expected || body.read() != -1) {
+                    throw new IllegalArgumentException("Размер части " + index + " не совпадает с ожидаемым: " + expected);
+                }
+                channel.force(false);
+            }
+            transferMetrics.recordUpload(TransferMetrics.SESSION, expected, System.nanoTime() - started);
+            synchronized (session) {
+                writeAtomically(session.getDirectory().resolve(CHUNKS_FILE), session.markReceived(index));
+            }
+            session.touch();
+        } finally {
+            lock.unlock();
+        }
+
+        log.debug("Сессия {}: принята часть {}", sessionId, index);
+        return toStatus(session);
+    }
+
+    public UploadSessionStatusDTO getStatus(Path userRoot, String sessionId) throws IOException {
+        return toStatus(getOwnedSession(userRoot, sessionId));
+    }
+
+    public String commit(Path userRoot, String sessionId) throws IOException {
+        UploadSession session = getOwnedSession(userRoot, sessionId);
+        Lock lock = session.getLock().writeLock();
+        lock.lock();
+        try {
+            ensureOpen(session);
+            if (!session.isComplete()) {
+                throw new IllegalStateException("Получены не все части: не хватает " + session.getMissing().size());
+            }
+            if (!session.isReserved()) {
+                // Сессия открыта до появления резерва при создании
+                storageUsageService.reserve(userRoot, session.getSize(), 1);
+                session.markReserved();
+                writeMetadata(session);
+            }
+            String fileId = fileService.moveIntoStorage(userRoot, session.getDataFile(),
+                    session.getFileName(), session.getFolderId());
+            session.close();
+            sessions.remove(session.getId());
+            FileUtils.deleteRecursively(session.getDirectory());
+            log.debug("Сессия загрузки {} завершена, файл сохранён как '{}'", sessionId, fileId);
+            return fileId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void abort(Path userRoot, String sessionId) throws IOException {
+        UploadSession session = getOwnedSession(userRoot, sessionId);
+        Lock lock = session.getLock().writeLock();
+        lock.lock();
+        try {
+            // Повторная отмена не должна второй раз вернуть резерв
+            ensureOpen(session);
+            session.close();
+            discard(session);
+            log.debug("Сессия загрузки {} отменена", sessionId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "PT1H", initialDelayString = "PT5M")
+    public void removeExpiredSessions() {
+        if (!Files.isDirectory(SESSIONS_ROOT)) {
+            return;
+        }
+        Instant threshold = Instant.now().minus(properties.getSessionTtl());
+        try (Stream<Path> directories = Files.list(SESSIONS_ROOT)) {
+            directories.forEach(directory -> {
+                try {
+                    UploadSession session = findSession(directory.getFileName().toString());
+                    if (session == null || session.getLastActivity().isAfter(threshold)) {
+                        return;
+                    }
+                    Lock lock = session.getLock().writeLock();
+                    if (lock.tryLock()) {
+                        try {
+                            if (session.isClosed()) {
+                                return;
+                            }
+                            session.close();
+                            discard(session);
+                            log.info("Сессия загрузки {} удалена по истечении срока", session.getId());
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                } catch (IOException e) {
+                    log.warn("Не удалось обработать сессию загрузки {}", directory, e);
+                }
+            });
+        } catch (IOException e) {
+            log.error("Ошибка при очистке просроченных сессий загрузки", e);
+        }
+    }
+
+    private UploadSession getOwnedSession(Path userRoot, String sessionId) throws IOException {
+        UploadSession session = findSession(sessionId);
+        if (session == null) {
+            throw new FileNotFoundException("Сессия загрузки не найдена: " + sessionId);
+        }
+        if (!session.getOwnerId().equals(ownerOf(userRoot))) {
+            throw new SecurityException("Сессия загрузки принадлежит другому пользователю");
+        }
+        return session;
+    }
+
+    private UploadSession findSession(String sessionId) throws IOException {
+        UploadSession cached = sessions.get(sessionId);
+        if (cached != null) {
+            return cached;
+        }
+        Path directory = SESSIONS_ROOT.resolve(sessionId).normalize();
+        if (!directory.startsWith(SESSIONS_ROOT) || !Files.isRegularFile(directory.resolve(METADATA_FILE))) {
+            return null;
+        }
+        UploadSession restored = readSession(sessionId, directory);
+        UploadSession existing = sessions.putIfAbsent(sessionId, restored);
+        return existing != null ? existing : restored;
+    }
+
+    private void ensureOpen(UploadSession session) throws FileNotFoundException {
+        if (session.isClosed()) {
+            throw new FileNotFoundException("Сессия загрузки уже завершена: " + session.getId());
+        }
+    }
+
+    private long copyToChannel(InputStream body, FileChannel channel, long offset, long expected) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(body);
+        ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+        long written = 0;
+        while (written < expected) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), expected - written));
+            if (source.read(buffer) == -1) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer, offset + written);
+            }
+        }
+        return written;
+    }
+
+    // Удаляет незавершённую сессию и возвращает зарезервированное под неё место
+    private void discard(UploadSession session) throws IOException {
+        sessions.remove(session.getId());
+        FileUtils.deleteRecursively(session.getDirectory());
+        if (session.isReserved()) {
+            storageUsageService.release(STORAGE_ROOT.resolve(session.getOwnerId()), session.getSize(), 1);
+        }
+    }
+
+    private void writeMetadata(UploadSession session) throws IOException {
+        Properties metadata = new Properties();
+        metadata.setProperty("owner", session.getOwnerId());
+        metadata.setProperty("fileName", session.getFileName());
+        metadata.setProperty("folderId", session.getFolderId());
+        metadata.setProperty("size", Long.toString(session.getSize()));
+        metadata.setProperty("chunkSize", Long.toString(session.getChunkSize()));
+        metadata.setProperty("reserved", Boolean.toString(session.isReserved()));
+        try (var out = Files.newOutputStream(session.getDirectory().resolve(METADATA_FILE))) {
+            metadata.store(out, null);
+        }
+    }
+
+    private UploadSession readSession(String sessionId, Path directory) throws IOException {
+        Properties metadata = new Properties();
+        try (var in = Files.newInputStream(directory.resolve(METADATA_FILE))) {
+            metadata.load(in);
+        }
+        Path chunksFile = directory.resolve(CHUNKS_FILE);
+        BitSet received = Files.exists(chunksFile) ? BitSet.valueOf(Files.readAllBytes(chunksFile)) : new BitSet();
+        Path lastWrite = Files.exists(chunksFile) ? chunksFile : directory.resolve(METADATA_FILE);
+
+        log.info("Сессия загрузки {} восстановлена с диска", sessionId);
+        return new UploadSession(sessionId,
+                metadata.getProperty("owner"),
+                metadata.getProperty("fileName"),
+                metadata.getProperty("folderId"),
+                Long.parseLong(metadata.getProperty("size")),
+                Long.parseLong(metadata.getProperty("chunkSize")),
+                directory,
+                received,
+                Files.getLastModifiedTime(lastWrite).toInstant(),
+                Boolean.parseBoolean(metadata.getProperty("reserved")));
+    }
+
+    private void writeAtomically(Path target, byte[] content) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(temp, content);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private UploadSessionStatusDTO toStatus(UploadSession session) {
+        return new UploadSessionStatusDTO(
+                session.getId(),
+                session.getFileName(),
+                session.getFolderId(),
+                session.getSize(),
+                session.getChunkSize(),
+                session.getChunkCount(),
+                session.getReceivedBytes(),
+                session.getReceived(),
+                session.getMissing()
+        );
+    }
+
+    private static String ownerOf(Path userRoot) {
+        return userRoot.getFileName().toString();
+    }
+}
@@ -0,0 +1,159 @@
+package com.lizaveta.service.storage.usage;
+
+import com.lizaveta.config.StoragePath;
+import com.lizaveta.model.fileDTO.FileType;
+import com.lizaveta.model.fileDTO.FolderSizeDto;
+import com.lizaveta.model.fileDTO.FolderSizeEntryDto;
+import com.lizaveta.service.storage.blob.BlobStore;
+import com.lizaveta.service.storage.event.StorageChangeEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Размеры папок с учётом вложенных, из дерева {@link FolderSizeTree}. Дерево пользователя строится
+ * обходом папки при первом запросе, а дальше поддерживается событиями {@link StorageChangeEvent}.
+ * Раз в сутки деревья сбрасываются, чтобы подхватить изменения, сделанные в обход приложения.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class FolderSizeIndexService {
+
+    private static final Path GLOBAL_STORAGE_ROOT = StoragePath.detect().getPath();
+
+    private final BlobStore blobStore;
+    private final Map<String, FolderSizeTree> trees = new ConcurrentHashMap<>();
+
+    public FolderSizeDto getFolderSize(Path userRoot, Path folder, int limit) throws IOException {
+        FolderSizeTree tree = getTree(userRoot);
+        String path = userRoot.relativize(folder).toString();
+        Lock lock = tree.getLock().readLock();
+        lock.lock();
+        try {
+            FolderSizeTree.Folder node = tree.get(path);
+            if (node == null) {
+                throw new FileNotFoundException("Папка не найдена: " + path);
+            }
+            List<FolderSizeEntryDto> children = new ArrayList<>(node.subfolders.size() + node.files.size());
+            for (String name : node.subfolders) {
+                FolderSizeTree.Folder subfolder = tree.get(child(path, name));
+                children.add(new FolderSizeEntryDto(child(path, name), name, FileType.FOLDER,
+                        subfolder.totalBytes, subfolder.totalFiles));
+            }
+            node.files.forEach((name, size) ->
+                    children.add(new FolderSizeEntryDto(child(path, name), name, FileType.FILE, size, 1)));
+            children.sort(Comparator.comparingLong(FolderSizeEntryDto::getBytes).reversed()
+                    .thenComparing(FolderSizeEntryDto::getName));
+            return new FolderSizeDto(path, node.totalBytes, node.totalFiles,
+                    children.size() > limit ? new ArrayList<>(children.subList(0, limit)) : children);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @EventListener
+    public void onStorageChange(StorageChangeEvent event) {
+        Path path = event.path().normalize();
+        if (!path.startsWith(GLOBAL_STORAGE_ROOT) || path.equals(GLOBAL_STORAGE_ROOT)) {
+            return;
+        }
+        String userId = GLOBAL_STORAGE_ROOT.relativize(path).getName(0).toString();
+        Path userRoot = GLOBAL_STORAGE_ROOT.resolve(userId);
+        if (path.equals(userRoot) && event.kind() == StorageChangeEvent.Kind.DELETED) {
+            trees.remove(userId);
+            return;
+        }
+        // Ещё не построенное дерево обновлять не нужно: оно будет прочитано с диска уже с этим изменением
+        FolderSizeTree tree = trees.get(userId);
+        if (tree == null || path.equals(userRoot)) {
+            return;
+        }
+        Lock lock = tree.getLock().writeLock();
+        lock.lock();
+        try {
+            if (event.kind() == StorageChangeEvent.Kind.DELETED) {
+                tree.remove(userRoot.relativize(path).toString());
+            } else {
+                scan(tree, userRoot, path);
+            }
+        } catch (IOException e) {
+            log.warn("Не удалось обновить размеры папок для {}: {}", path, e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Scheduled(cron = "0 45 4 * * *")
+    public void reset() {
+        log.info("Сброс деревьев размеров папок: {}", trees.size());
+        trees.clear();
+    }
+
+    private FolderSizeTree getTree(Path userRoot) throws IOException {
+        FolderSizeTree tree = trees.computeIfAbsent(userRoot.getFileName().toString(), key -> new FolderSizeTree());
+        synchronized (tree) {
+            if (!tree.loaded) {
+                long started = System.nanoTime();
+                Lock lock = tree.getLock().writeLock();
+                lock.lock();
+                try {
+                    if (Files.isDirectory(userRoot)) {
+                        scan(tree, userRoot, userRoot);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                tree.loaded = true;
+                FolderSizeTree.Folder root = tree.get("");
+                log.info("Дерево размеров папок {} построено: {} байт, файлов {}, {} мс",
+                        userRoot.getFileName(), root.totalBytes, root.totalFiles, (System.nanoTime() - started) / 1_000_000);
+            }
+        }
+        return tree;
+    }
+
+    private void scan(FolderSizeTree tree, Path userRoot, Path start) throws IOException {
+        if (!Files.exists(start, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                tree.addFolder(userRoot.relativize(dir).toString());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    tree.putFile(userRoot.relativize(file).toString(), blobStore.contentLength(file, attrs.size()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                log.debug("Пропущен недоступный путь {}: {}", file, exc.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static String child(String path, String name) {
+        return path.isEmpty() ? name : path + FileSystems.getDefault().getSeparator() + name;
+    }
+}
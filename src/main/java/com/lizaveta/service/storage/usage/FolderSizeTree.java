@@ -0,0 +1,115 @@
+package com.lizaveta.service.storage.usage;
+
+import java.nio.file.FileSystems;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Дерево размеров папок одного пользователя. Каждая папка хранит суммарный размер и число файлов
+ * всего поддерева, а также размеры собственных файлов; изменение файла прибавляет разницу ко всем предкам,
+ * поэтому размер любой папки читается за O(1), а обновление стоит O(глубины).
+ * Пути хранятся относительно корня пользователя; корень — папка с пустым путём.
+ */
+class FolderSizeTree {
+
+    private static final String SEPARATOR = FileSystems.getDefault().getSeparator();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Folder> folders = new HashMap<>();
+    boolean loaded;
+
+    FolderSizeTree() {
+        folders.put("", new Folder());
+    }
+
+    ReadWriteLock getLock() {
+        return lock;
+    }
+
+    Folder get(String path) {
+        return folders.get(path);
+    }
+
+    void putFile(String path, long size) {
+        Folder parent = ensureFolder(parentOf(path));
+        Long previous = parent.files.put(nameOf(path), size);
+        propagate(parentOf(path), size - (previous != null ? previous : 0), previous != null ? 0 : 1);
+    }
+
+    void addFolder(String path) {
+        ensureFolder(path);
+    }
+
+    /** Удаляет файл или папку со всем содержимым. */
+    void remove(String path) {
+        if (path.isEmpty()) {
+            return;
+        }
+        Folder folder = folders.get(path);
+        if (folder != null) {
+            removeSubtree(path, folder);
+            Folder parent = folders.get(parentOf(path));
+            if (parent != null) {
+                parent.subfolders.remove(nameOf(path));
+            }
+            propagate(parentOf(path), -folder.totalBytes, -folder.totalFiles);
+            return;
+        }
+        Folder parent = folders.get(parentOf(path));
+        Long previous = parent != null ? parent.files.remove(nameOf(path)) : null;
+        if (previous != null) {
+            propagate(parentOf(path), -previous, -1);
+        }
+    }
+
+    private void removeSubtree(String path, Folder folder) {
+        for (String name : folder.subfolders) {
+            String child = path + SEPARATOR + name;
+            Folder subfolder = folders.get(child);
+            if (subfolder != null) {
+                removeSubtree(child, subfolder);
+            }
+        }
+        folders.remove(path);
+    }
+
+    private Folder ensureFolder(String path) {
+        Folder folder = folders.get(path);
+        if (folder != null) {
+            return folder;
+        }
+        folder = new Folder();
+        folders.put(path, folder);
+        ensureFolder(parentOf(path)).subfolders.add(nameOf(path));
+        return folder;
+    }
+
+    private void propagate(String path, long bytes, long files) {
+        for (String current = path; ; current = parentOf(current)) {
+            Folder folder = folders.get(current);
+            folder.totalBytes += bytes;
+            folder.totalFiles += files;
+            if (current.isEmpty()) {
+                return;
+            }
+        }
+    }
+
+    private static String parentOf(String path) {
+        int separator = path.lastIndexOf(SEPARATOR);
+        return separator >= 0 ? path.substring(0, separator) : "";
+    }
+
+    private static String nameOf(String path) {
+        int separator = path.lastIndexOf(SEPARATOR);
+        return separator >= 0 ? path.substring(separator + SEPARATOR.length()) : path;
+    }
+
+    static class Folder {
+        long totalBytes;
+        long totalFiles;
+        final Map<String, Long> files = new HashMap<>();
+        final Set<String> subfolders = new HashSet<>();
+    }
+}
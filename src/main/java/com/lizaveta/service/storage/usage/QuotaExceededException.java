@@ -0,0 +1,8 @@
+package com.lizaveta.service.storage.usage;
+
+public class QuotaExceededException extends RuntimeException {
+
+    public QuotaExceededException(String message) {
+        super(message);
+    }
+}
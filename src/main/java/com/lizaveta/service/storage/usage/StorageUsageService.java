@@ -0,0 +1,162 @@
+package com.lizaveta.service.storage.usage;
+
+import com.lizaveta.config.StorageProperties;
+import com.lizaveta.model.UserUsage;
+import com.lizaveta.model.fileDTO.StorageUsageDto;
+import com.lizaveta.service.storage.blob.BlobStore;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Счётчики занятого места (байты и число файлов) на пользователя. Меняются атомарно при записи и удалении,
+ * поэтому запрос использования не обходит дерево. Резервирование места проверяет квоту и увеличивает
+ * счётчик одной операцией, так что параллельные загрузки не могут вместе её превысить.
+ * Для пользователей без документа счётчики один раз вычисляются обходом папки.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StorageUsageService {
+
+    private final MongoTemplate mongoTemplate;
+    private final StorageProperties storageProperties;
+    private final BlobStore blobStore;
+
+    public StorageUsageDto getUsage(Path userRoot) {
+        UserUsage usage = load(userRoot);
+        return new StorageUsageDto(usage.getBytes(), usage.getFiles(), quotaOf(usage));
+    }
+
+    /** Проверка без резервирования — для загрузок, размер которых известен заранее, до записи первого байта. */
+    public void checkAvailable(Path userRoot, long bytes) {
+        UserUsage usage = load(userRoot);
+        Long quota = quotaOf(usage);
+        if (quota != null && usage.getBytes() + bytes > quota) {
+            throw exceeded(usage, bytes, quota);
+        }
+    }
+
+    /** Сколько байт ещё можно записать до квоты; без квоты — Long.MAX_VALUE. */
+    public long available(Path userRoot) {
+        UserUsage usage = load(userRoot);
+        Long quota = quotaOf(usage);
+        return quota != null ? Math.max(0, quota - usage.getBytes()) : Long.MAX_VALUE;
+    }
+
+    public void reserve(Path userRoot, long bytes, long files) {
+        UserUsage usage = load(userRoot);
+        Long quota = quotaOf(usage);
+        Query query = byId(usage.getUserId());
+        if (quota != null && bytes > 0) {
+            query.addCriteria(where("bytes").lte(quota - bytes));
+        }
+        if (mongoTemplate.updateFirst(query, increment(bytes, files), UserUsage.class).getMatchedCount() == 0) {
+            throw exceeded(load(userRoot), bytes, quota);
+        }
+    }
+
+    /**
+     * Резервирует место под запись файла target. Существующий файл с тем же именем будет перезаписан,
+     * поэтому учитывается только разница в размере. Квота считается по исходному размеру содержимого,
+     * а не по месту на диске после сжатия.
+     */
+    public Reservation reserveWrite(Path userRoot, Path target, long size) throws IOException {
+        long replaced = Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS) ? blobStore.contentLength(target) : -1;
+        Reservation reservation = new Reservation(userRoot, size - Math.max(replaced, 0), replaced >= 0 ? 0 : 1);
+        reserve(userRoot, reservation.bytes(), reservation.files());
+        return reservation;
+    }
+
+    public void release(Reservation reservation) {
+        release(reservation.userRoot(), reservation.bytes(), reservation.files());
+    }
+
+    public void release(Path userRoot, long bytes, long files) {
+        if (bytes == 0 && files == 0) {
+            return;
+        }
+        // Если документа ещё нет, счётчики будут подсчитаны при первом обращении по уже изменённой папке
+        mongoTemplate.updateFirst(byId(userIdOf(userRoot)), increment(-bytes, -files), UserUsage.class);
+    }
+
+    public void forget(Path userRoot) {
+        mongoTemplate.remove(byId(userIdOf(userRoot)), UserUsage.class);
+    }
+
+    public record Reservation(Path userRoot, long bytes, long files) {
+    }
+
+    private UserUsage load(Path userRoot) {
+        String userId = userIdOf(userRoot);
+        UserUsage usage = mongoTemplate.findById(userId, UserUsage.class);
+        if (usage != null) {
+            return usage;
+        }
+        UserUsage calculated = calculate(userId, userRoot);
+        mongoTemplate.upsert(byId(userId), new Update()
+                .setOnInsert("bytes", calculated.getBytes())
+                .setOnInsert("files", calculated.getFiles())
+                .setOnInsert("calculatedAt", calculated.getCalculatedAt()), UserUsage.class);
+        return mongoTemplate.findById(userId, UserUsage.class);
+    }
+
+    private UserUsage calculate(String userId, Path userRoot) {
+        long bytes = 0;
+        long files = 0;
+        if (Files.isDirectory(userRoot)) {
+            try (Stream<Path> paths = Files.walk(userRoot)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attributes.isRegularFile()) {
+                        bytes += blobStore.contentLength(path, attributes.size());
+                        files++;
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                log.warn("Не удалось полностью подсчитать занятое место пользователя {}: {}", userId, e.getMessage());
+            }
+        }
+        log.info("Подсчитано занятое место пользователя {}: {} байт, файлов {}", userId, bytes, files);
+        return UserUsage.builder().userId(userId).bytes(bytes).files(files).calculatedAt(Instant.now()).build();
+    }
+
+    private Long quotaOf(UserUsage usage) {
+        if (usage.getQuotaBytes() != null) {
+            return usage.getQuotaBytes();
+        }
+        StorageProperties.Quota properties = storageProperties.getQuota();
+        return properties.isEnabled() ? properties.getDefaultQuota().toBytes() : null;
+    }
+
+    private static QuotaExceededException exceeded(UserUsage usage, long bytes, Long quota) {
+        return new QuotaExceededException("Превышена квота хранилища: занято " + usage.getBytes()
+                + " из " + quota + " байт, требуется ещё " + bytes);
+    }
+
+    private static Update increment(long bytes, long files) {
+        return new Update().inc("bytes", bytes).inc("files", files);
+    }
+
+    private static Query byId(String userId) {
+        return new Query(where("_id").is(userId));
+    }
+
+    private static String userIdOf(Path userRoot) {
+        return userRoot.getFileName().toString();
+    }
+}
@@ -5,15 +5,21 @@ import java.io.UncheckedIOException;
 import java.nio.file.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.regex.Pattern;
 
 public class FileUtils {
 
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+    private static final Pattern TIMESTAMP_PREFIX = Pattern.compile("^\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}-\\d{2}__?");
 
     public static String generateTimestampedFileName(String originalName) {
         return FORMATTER.format(LocalDateTime.now()) + "_" + originalName;
     }
 
+    public static String stripTimestamp(String fileName) {
+        return TIMESTAMP_PREFIX.matcher(fileName).replaceFirst("");
+    }
+
     public static void createDirectoriesIfNotExist(Path path) throws IOException {
         if (!Files.exists(path)) {
             Files.createDirectories(path);
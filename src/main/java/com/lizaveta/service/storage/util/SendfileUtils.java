@@ -0,0 +1,31 @@
+package com.lizaveta.service.storage.util;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpMethod;
+
+import java.nio.file.Path;
+
+public class SendfileUtils {
+
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * Передаёт отрезок файла [start, end) контейнеру для отправки через sendfile.
+     * Работает только в синхронной обработке запроса: после асинхронного dispatch Tomcat sendfile не выполняет.
+     */
+    public static boolean trySendfile(HttpServletRequest request, Path file, long start, long end) {
+        if (!Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))
+                || request.getDispatcherType() != DispatcherType.REQUEST
+                || HttpMethod.HEAD.matches(request.getMethod())) {
+            return false;
+        }
+        request.setAttribute(SENDFILE_FILENAME_ATTR, file.toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START_ATTR, start);
+        request.setAttribute(SENDFILE_END_ATTR, end);
+        return true;
+    }
+}
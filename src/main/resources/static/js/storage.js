@@ -1,4 +1,5 @@
 const BASE_URL = '/api/off-chance';
+const PAGE_SIZE = 200;
 let currentRelativePath = '';
 
 document.addEventListener('DOMContentLoaded', () => {
@@ -21,18 +22,42 @@ function initCurrentPath() {
 }
 
 function loadAllFiles() {
-    fetch(`${BASE_URL}/storage?relativePath=${encodeURIComponent(currentRelativePath)}`)
+    loadFilesPage(null);
+}
+
+function loadFilesPage(cursor) {
+    let url = `${BASE_URL}/storage?relativePath=${encodeURIComponent(currentRelativePath)}&limit=${PAGE_SIZE}`;
+    if (cursor) {
+        url += `&cursor=${encodeURIComponent(cursor)}`;
+    }
+    fetch(url)
         .then(response => response.json())
-        .then(files => {
-            renderFiles(files);
+        .then(page => {
+            renderFiles(page.items, Boolean(cursor));
+            renderLoadMore(page.nextCursor);
             updateCurrentPathDisplay();
         })
         .catch(error => console.error('Ошибка при загрузке файлов:', error));
 }
 
-function renderFiles(files) {
+function renderLoadMore(nextCursor) {
     const fileList = document.getElementById('fileList');
-    fileList.innerHTML = '';
+    const existing = document.getElementById('loadMoreButton');
+    if (existing) {
+        existing.remove();
+    }
+    if (nextCursor) {
+        const button = createButton('Показать ещё', () => loadFilesPage(nextCursor));
+        button.id = 'loadMoreButton';
+        fileList.appendChild(button);
+    }
+}
+
+function renderFiles(files, append = false) {
+    const fileList = document.getElementById('fileList');
+    if (!append) {
+        fileList.innerHTML = '';
+    }
 
     files.forEach(file => {
         const fileDiv = document.createElement('div');
@@ -111,11 +136,11 @@ function uploadFiles() {
         progressContainer.appendChild(uploadItem);
 
         const formData = new FormData();
-        formData.append('file', file);
         formData.append('folderId', currentRelativePath);
+        formData.append('file', file);
 
         const xhr = new XMLHttpRequest();
-        xhr.open('POST', `${BASE_URL}/upload`, true);
+        xhr.open('POST', `${BASE_URL}/upload-stream`, true);
 
         xhr.upload.onprogress = event => updateProgress(event, progressId);
         xhr.onload = () => handleUploadComplete(xhr, progressId);
@@ -139,17 +164,16 @@ function uploadFolder() {
     progressContainer.innerHTML = '';
 
     const formData = new FormData();
+    formData.append('parentFolderId', currentRelativePath);
     Array.from(files).forEach((file, idx) => {
+        formData.append('relativePath', file.webkitRelativePath);
         formData.append('files', file);
-        formData.append('relativePaths', file.webkitRelativePath);
         const uploadItem = createProgressItem(file.webkitRelativePath, `progress-folder-${idx}`);
         progressContainer.appendChild(uploadItem);
     });
 
-    formData.append('parentFolderId', currentRelativePath);
-
     const xhr = new XMLHttpRequest();
-    xhr.open('POST', `${BASE_URL}/upload-folder`, true);
+    xhr.open('POST', `${BASE_URL}/upload-stream`, true);
 
     xhr.upload.onprogress = event => {
         if (event.lengthComputable) {
@@ -166,6 +190,12 @@ function uploadFolder() {
                 progressContainer.innerHTML = '';
                 loadAllFiles();
             }, 500);
+        } else if (xhr.status === 207) {
+            const result = JSON.parse(xhr.responseText);
+            const failed = result.failedFiles.map(f => `${f.relativePath}: ${f.message}`).join('\n');
+            alert(`Часть файлов не загружена:\n${failed}`);
+            progressContainer.innerHTML = '';
+            loadAllFiles();
         } else {
             alert('Ошибка загрузки папки');
         }